@@ -0,0 +1,156 @@
+/* File: ConfigGenerator.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic Structured Properties configurations of a given
+ * shape and size for the benchmarks.
+ * <p>
+ * width is the number of entries in each block, depth the number of
+ * nested block levels and stringLength the length of each value. Keys are
+ * drawn from a small pool, as in real configurations with many repeated
+ * blocks, so that key interning is exercised too. The output is always the
+ * same for the same arguments. width should be at least 2, as a list of
+ * a single string is not valid.
+ */
+public class ConfigGenerator {
+    private static final String[] KEYS = {
+        "host", "port", "name", "enabled", "timeout", "path", "user", "weight"
+    };
+    
+    private final Random random;
+    private final int width;
+    private final int depth;
+    private final int stringLength;
+    private final StringBuilder out = new StringBuilder();
+    
+    private ConfigGenerator(int width, int depth, int stringLength, long seed) {
+        this.random = new Random(seed);
+        this.width = width;
+        this.depth = depth;
+        this.stringLength = stringLength;
+    }
+    
+    /**
+     * Nested maps and lists with a mix of quoted and unquoted values.
+     */
+    
+    public static String nested(int width, int depth, int stringLength) {
+        ConfigGenerator g = new ConfigGenerator(width, depth, stringLength, 42);
+        
+        for (int i = 0; i < width; i++)
+            g.entry(i, 0, "");
+        
+        return g.out.toString();
+    }
+    
+    /**
+     * A table in the style of 2darray.conf: a header row followed by rows
+     * of quoted cells, width columns wide. depth is ignored and the number
+     * of rows is width * stringLength.
+     */
+    
+    public static String table(int width, int depth, int stringLength) {
+        ConfigGenerator g = new ConfigGenerator(width, depth, stringLength, 42);
+        int rows = width * stringLength;
+        
+        g.out.append("table {\n    {");
+        for (int c = 0; c < width; c++)
+            g.out.append(" \"column").append(c).append('"');
+        g.out.append(" }\n");
+        
+        for (int r = 0; r < rows; r++) {
+            g.out.append("    {");
+            for (int c = 0; c < width; c++)
+                g.out.append(" \"").append(c == 0 ? Integer.toString(r) : g.word(stringLength)).append('"');
+            g.out.append(" }\n");
+        }
+        
+        g.out.append("}\n");
+        return g.out.toString();
+    }
+    
+    /**
+     * Flat blocks of unquoted values only, some of them continued onto a
+     * second line, which exercises the lexer's unquoted string states.
+     */
+    
+    public static String unquoted(int width, int depth, int stringLength) {
+        ConfigGenerator g = new ConfigGenerator(width, depth, stringLength, 42);
+        int blocks = width * Math.max(depth, 1);
+        
+        for (int b = 0; b < blocks; b++) {
+            g.out.append("block").append(b).append(" {\n");
+            for (int i = 0; i < width; i++) {
+                g.out.append("    ").append(KEYS[i % KEYS.length]).append(i).append(" = ");
+                g.out.append(g.sentence(stringLength));
+                if (i % 4 == 3)
+                    g.out.append(" \\\n        ").append(g.sentence(stringLength));
+                g.out.append("   \n");
+            }
+            g.out.append("}\n");
+        }
+        
+        return g.out.toString();
+    }
+    
+    private void entry(int index, int level, String indent) {
+        String key = KEYS[index % KEYS.length] + (index / KEYS.length == 0 ? "" : Integer.toString(index));
+        
+        out.append(indent).append(key);
+        
+        if (level < depth && index % 2 == 0) {
+            out.append(" {\n");
+            for (int i = 0; i < width; i++)
+                entry(i, level + 1, indent + "    ");
+            out.append(indent).append("}\n");
+        } else if (index % 3 == 0) {
+            out.append(" {");
+            for (int i = 0; i < width; i++)
+                out.append(" \"").append(word(stringLength)).append('"');
+            out.append(" }\n");
+        } else if (index % 3 == 1) {
+            out.append(" = \"").append(sentence(stringLength)).append("\"\n");
+        } else {
+            out.append(" = ").append(sentence(stringLength)).append("   # comment\n");
+        }
+    }
+    
+    private String word(int length) {
+        char[] c = new char[Math.max(length, 1)];
+        
+        for (int i = 0; i < c.length; i++)
+            c[i] = (char) ('a' + random.nextInt(26));
+        
+        return new String(c);
+    }
+    
+    private String sentence(int length) {
+        StringBuilder s = new StringBuilder();
+        
+        while (s.length() < length) {
+            if (s.length() > 0)
+                s.append(' ');
+            s.append(word(1 + random.nextInt(8)));
+        }
+        
+        return s.toString();
+    }
+}
@@ -0,0 +1,94 @@
+/* File: Inputs.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The configurations the lexer and parser benchmarks run over.
+ * <p>
+ * "example" and "2darray" are example.conf and 2darray.conf from the
+ * repository. "table" generates the 2darray.conf idiom at any size, and
+ * "nested" and "unquoted" come from the ConfigGenerator too; all three are
+ * scaled by width, depth and stringLength, which are ignored for the files.
+ */
+@State(Scope.Benchmark)
+public class Inputs {
+    @Param({ "example", "2darray", "nested", "table", "unquoted" })
+    public String source;
+    
+    @Param({ "8" })
+    public int width;
+    
+    @Param({ "4" })
+    public int depth;
+    
+    @Param({ "16" })
+    public int stringLength;
+    
+    public byte[] bytes;
+    public String text;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (source.equals("example"))
+            text = resource("/example.conf");
+        else if (source.equals("2darray"))
+            text = resource("/2darray.conf");
+        else if (source.equals("nested"))
+            text = ConfigGenerator.nested(width, depth, stringLength);
+        else if (source.equals("table"))
+            text = ConfigGenerator.table(width, depth, stringLength);
+        else if (source.equals("unquoted"))
+            text = ConfigGenerator.unquoted(width, depth, stringLength);
+        else
+            throw new IllegalArgumentException("Unknown source: " + source);
+        
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        System.out.printf("%n%s: %d bytes%n", source, bytes.length);
+    }
+    
+    static String resource(String name) throws IOException {
+        InputStream in = Inputs.class.getResourceAsStream(name);
+        
+        if (in == null)
+            throw new IOException("Missing resource " + name);
+        
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            
+            while ((n = in.read(buffer)) != -1)
+                out.write(buffer, 0, n);
+            
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
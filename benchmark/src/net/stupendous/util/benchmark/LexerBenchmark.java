@@ -0,0 +1,74 @@
+/* File: LexerBenchmark.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.stupendous.util.StructuredPropertiesByteLexer;
+import net.stupendous.util.StructuredPropertiesLexer;
+import net.stupendous.util.StructuredPropertiesSymbol;
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast each lexer turns a whole configuration into symbols.
+ * Divide the score by the input size printed at setup for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+    @Benchmark
+    public void jflexScan(Inputs in, Blackhole bh) throws IOException {
+        StructuredPropertiesLexer lexer = new StructuredPropertiesLexer(new StringReader(in.text));
+        StructuredPropertiesSymbol symbol;
+        
+        while ((symbol = lexer.scan()) != null)
+            bh.consume(symbol);
+    }
+    
+    @Benchmark
+    public void utf8Scan(Inputs in, Blackhole bh) {
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(in.bytes);
+        StructuredPropertiesSymbol symbol;
+        
+        while ((symbol = lexer.scan()) != null)
+            bh.consume(symbol);
+    }
+    
+    /* Finds every symbol without decoding any of them. */
+    @Benchmark
+    public void utf8Next(Inputs in, Blackhole bh) {
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(in.bytes);
+        
+        while (lexer.next() != Type.EOF)
+            bh.consume(lexer.getTokenLine());
+    }
+}
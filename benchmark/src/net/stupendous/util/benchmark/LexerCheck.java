@@ -0,0 +1,141 @@
+/* File: LexerCheck.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import net.stupendous.util.StructuredPropertiesByteLexer;
+import net.stupendous.util.StructuredPropertiesLexer;
+import net.stupendous.util.StructuredPropertiesScanner;
+import net.stupendous.util.StructuredPropertiesSymbol;
+
+/**
+ * Checks that the JFlex lexer and the UTF8 lexer turn the same input into
+ * the same symbols, with the same values and lines, and fail on the same
+ * input.
+ * <p>
+ * The input is each file named on the command line, the ConfigGenerator
+ * configurations at a few sizes, and a number of random strings made of
+ * the fragments the lexer rules care about: quotes, backslashes, comments,
+ * continuation lines, the different line endings and whitespace, and
+ * multibyte characters. The random strings are the same for the same seed.
+ * <pre>
+ * java LexerCheck [-seed n] [-count n] [file ...]
+ * </pre>
+ * Prints the first few inputs that differ, and exits with 1 if any did.
+ */
+public class LexerCheck {
+    private static final String[] FRAGMENTS = {
+        " ", "\t", "\n", "\r", "\r\n", "\u000b", "\f", "#c", "#", "\\", "\\t",
+        "\\n", "\\\n", " \\ \n", "\"", "=", "{", "}", "a", "key", "Zed", "1",
+        "x y", "-", "_", ".", "\u00e9", "\u65e5\u672c"
+    };
+    
+    private int checked = 0;
+    private int failed = 0;
+    
+    public static void main(String[] args) throws IOException {
+        LexerCheck check = new LexerCheck();
+        long seed = 1;
+        int count = 200000;
+        int i = 0;
+        
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-seed"))
+                seed = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("-count"))
+                count = Integer.parseInt(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        
+        for (; i < args.length; i++) {
+            byte[] bytes = Files.readAllBytes(new File(args[i]).toPath());
+            
+            check.check(args[i], new String(bytes, StandardCharsets.UTF_8));
+        }
+        
+        for (int size = 2; size <= 16; size *= 2) {
+            check.check("nested " + size, ConfigGenerator.nested(size, 3, size));
+            check.check("table " + size, ConfigGenerator.table(size, 0, size));
+            check.check("unquoted " + size, ConfigGenerator.unquoted(size, 3, size));
+        }
+        
+        Random random = new Random(seed);
+        
+        for (int n = 0; n < count; n++) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(14);
+            
+            for (int j = 0; j < length; j++)
+                s.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            
+            check.check("random " + n, s.toString());
+        }
+        
+        System.out.printf("%d inputs checked, %d differed%n", check.checked, check.failed);
+        
+        if (check.failed > 0)
+            System.exit(1);
+    }
+    
+    private void check(String name, String text) {
+        String jflex = symbols(new StructuredPropertiesLexer(new StringReader(text)));
+        String utf8 = symbols(new StructuredPropertiesByteLexer(text.getBytes(StandardCharsets.UTF_8)));
+        
+        checked++;
+        
+        if (jflex.equals(utf8))
+            return;
+        
+        if (failed++ < 10) {
+            System.out.printf("%s differs: %s%n", name, escape(text));
+            System.out.printf("    jflex: %s%n", escape(jflex));
+            System.out.printf("    utf8:  %s%n", escape(utf8));
+        }
+    }
+    
+    /* Every symbol in turn, then EOF or the failure that ended the scan. */
+    private static String symbols(StructuredPropertiesScanner scanner) {
+        StringBuilder out = new StringBuilder();
+        
+        try {
+            StructuredPropertiesSymbol symbol;
+            
+            while ((symbol = scanner.scan()) != null)
+                out.append(symbol).append('|');
+            
+            out.append("EOF");
+        } catch (IOException e) {
+            out.append("failed");
+        } catch (Error e) {
+            out.append("failed");
+        }
+        
+        return out.toString();
+    }
+    
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,103 @@
+/* File: LookupBenchmark.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.stupendous.util.StructuredProperties;
+import net.stupendous.util.StructuredPropertiesOptions;
+import net.stupendous.util.StructuredPropertiesPath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of reading a single property from example.conf, by
+ * each of the lookup methods, on an ordinary and on a frozen tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+    private static final String KEY = "users.matjam.email";
+    private static final StructuredPropertiesPath PATH = StructuredPropertiesPath.compile(KEY);
+    private static final StructuredPropertiesPath MISSING = StructuredPropertiesPath.compile("users.nobody.email");
+    private static final StructuredPropertiesPath INTEGER = StructuredPropertiesPath.compile("options.integer");
+    
+    private StructuredProperties plain;
+    private StructuredProperties frozen;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String text = Inputs.resource("/example.conf");
+        StructuredPropertiesOptions options = new StructuredPropertiesOptions();
+        
+        options.setFrozen(true);
+        plain = new StructuredProperties(new StringReader(text));
+        frozen = new StructuredProperties(new StringReader(text), options);
+    }
+    
+    @Benchmark
+    public Object dottedKey() {
+        return plain.getProperty("UNSET", KEY);
+    }
+    
+    @Benchmark
+    public Object keyParts() {
+        return plain.getProperty("users", "matjam", "email");
+    }
+    
+    @Benchmark
+    public Object compiledPath() {
+        return plain.getProperty(PATH);
+    }
+    
+    @Benchmark
+    public Object compiledPathFrozen() {
+        return frozen.getProperty(PATH);
+    }
+    
+    @Benchmark
+    public Object compiledPathMiss() {
+        return plain.getProperty(MISSING);
+    }
+    
+    @Benchmark
+    public int getInt() {
+        return plain.getInt(0, INTEGER);
+    }
+    
+    @Benchmark
+    public int getIntFrozen() {
+        return frozen.getInt(0, INTEGER);
+    }
+}
@@ -0,0 +1,96 @@
+/* File: ParserBenchmark.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.stupendous.util.StructuredProperties;
+import net.stupendous.util.StructuredPropertiesHandler;
+import net.stupendous.util.StructuredPropertiesOptions;
+import net.stupendous.util.StructuredPropertiesParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full parse, from bytes to a finished tree, in each of the
+ * ways StructuredProperties can be loaded. Run with "-prof gc" to see the
+ * allocation rate and bytes allocated per parse alongside the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    private StructuredPropertiesOptions utf8 = new StructuredPropertiesOptions();
+    private StructuredPropertiesOptions frozen = new StructuredPropertiesOptions();
+    
+    /* Receives the events of a parse and does nothing with them. */
+    private static final StructuredPropertiesHandler NOTHING = new StructuredPropertiesHandler() {
+        public void startMap(int line) { }
+        public void startList(int line) { }
+        public void key(String key, int line) { }
+        public void value(String value, int line) { }
+        public void endBlock(int line) { }
+    };
+    
+    public ParserBenchmark() {
+        utf8.setLexer(StructuredPropertiesOptions.Lexer.UTF8);
+        frozen.setLexer(StructuredPropertiesOptions.Lexer.UTF8);
+        frozen.setFrozen(true);
+    }
+    
+    @Benchmark
+    public Map<String, Object> jflexReader(Inputs in) {
+        return new StructuredProperties(new StringReader(in.text)).getTree();
+    }
+    
+    @Benchmark
+    public Map<String, Object> jflexStream(Inputs in) {
+        return new StructuredProperties(new ByteArrayInputStream(in.bytes)).getTree();
+    }
+    
+    @Benchmark
+    public Map<String, Object> utf8(Inputs in) {
+        return new StructuredProperties(new ByteArrayInputStream(in.bytes), utf8).getTree();
+    }
+    
+    @Benchmark
+    public Map<String, Object> utf8Frozen(Inputs in) {
+        return new StructuredProperties(new ByteArrayInputStream(in.bytes), frozen).getTree();
+    }
+    
+    /* The parser on its own, without building a tree. */
+    @Benchmark
+    public void utf8Events(Inputs in) {
+        new StructuredPropertiesParser(ByteBuffer.wrap(in.bytes)).parse(NOTHING);
+    }
+}
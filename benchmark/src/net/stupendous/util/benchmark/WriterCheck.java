@@ -0,0 +1,215 @@
+/* File: WriterCheck.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.stupendous.util.StructuredProperties;
+import net.stupendous.util.StructuredPropertiesOptions;
+import net.stupendous.util.StructuredPropertiesWriter;
+
+/**
+ * Checks that what StructuredPropertiesWriter writes reads back as the same
+ * tree, with both the JFlex lexer and the UTF8 lexer.
+ * <p>
+ * The trees are each file named on the command line that loads, the
+ * ConfigGenerator configurations at a few sizes, a number of random
+ * tables, and a number of random strings, each written as a key, a map
+ * value, a list entry and a table cell. The strings are made of the
+ * characters the lexer rules treat specially: quotes, backslashes and the
+ * letters of its escapes, comment and block characters, and the different
+ * whitespace and line endings. The random input is the same for the same
+ * seed.
+ * <pre>
+ * java WriterCheck [-seed n] [-count n] [file ...]
+ * </pre>
+ * A tree the writer refuses with an Error is counted but is not a failure;
+ * see StructuredPropertiesWriter for what it cannot write. Prints the first
+ * few trees that read back differently, and exits with 1 if any did.
+ */
+public class WriterCheck {
+    private static final String CHARACTERS = "ab \t\\\"#}{=\n\rtnr\u000b\f\u00e91-_.";
+    
+    private int checked = 0;
+    private int refused = 0;
+    private int failed = 0;
+    
+    public static void main(String[] args) {
+        WriterCheck check = new WriterCheck();
+        long seed = 1;
+        int count = 20000;
+        int i = 0;
+        
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-seed"))
+                seed = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("-count"))
+                count = Integer.parseInt(args[i + 1]);
+            else
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        
+        for (; i < args.length; i++) {
+            StructuredProperties properties;
+            
+            try {
+                properties = new StructuredProperties(new File(args[i]));
+            } catch (Error e) {
+                System.out.printf("%s skipped: %s%n", args[i], e.getMessage());
+                continue;
+            }
+            
+            check.check(args[i], properties.getTree());
+        }
+        
+        for (int size = 2; size <= 16; size *= 2) {
+            check.check("nested " + size, read(ConfigGenerator.nested(size, 3, size), false));
+            check.check("table " + size, read(ConfigGenerator.table(size, 0, size), false));
+            check.check("unquoted " + size, read(ConfigGenerator.unquoted(size, 3, size), false));
+        }
+        
+        Random random = new Random(seed);
+        
+        for (int n = 0; n < count / 10; n++)
+            check.check("random table " + n, table(random));
+        
+        for (int n = 0; n < count; n++) {
+            String s = string(random, 6);
+            Map<String, Object> root = new LinkedHashMap<String, Object>();
+            List<Object> row = new ArrayList<Object>();
+            
+            row.add("x");
+            row.add(s);
+            root.put(s, s);
+            root.put("list", list(s, "x"));
+            root.put("block", Collections.singletonList(Collections.singletonMap("key", s)));
+            root.put("table", list(list("a", "b"), row));
+            check.check("random string " + n, root);
+        }
+        
+        System.out.printf("%d trees checked, %d refused by the writer, %d differed%n",
+                check.checked, check.refused, check.failed);
+        
+        if (check.failed > 0)
+            System.exit(1);
+    }
+    
+    private void check(String name, Map<String, Object> root) {
+        String text;
+        
+        checked++;
+        
+        try {
+            StringWriter out = new StringWriter();
+            
+            new StructuredPropertiesWriter(out).write(root);
+            text = out.toString();
+        } catch (Error e) {
+            refused++;
+            return;
+        }
+        
+        for (boolean utf8 : new boolean[] { false, true }) {
+            String result;
+            
+            try {
+                Map<String, Object> back = read(text, utf8);
+                
+                if (root.equals(back))
+                    continue;
+                
+                result = String.valueOf(back);
+            } catch (Error e) {
+                result = e.getMessage();
+            }
+            
+            if (failed++ < 10) {
+                System.out.printf("%s differs with the %s lexer: %s%n", name, utf8 ? "UTF8" : "JFlex", root);
+                System.out.printf("    wrote: %s%n", text.replace("\n", "\\n"));
+                System.out.printf("    read:  %s%n", result);
+            }
+        }
+    }
+    
+    private static Map<String, Object> read(String text, boolean utf8) {
+        StructuredProperties properties;
+        
+        if (utf8) {
+            StructuredPropertiesOptions options = new StructuredPropertiesOptions();
+            
+            options.setLexer(StructuredPropertiesOptions.Lexer.UTF8);
+            properties = new StructuredProperties(
+                    new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), options);
+        } else {
+            properties = new StructuredProperties(new StringReader(text));
+        }
+        
+        if (properties.getTree() == null)
+            throw new Error("Unable to read configuration: " + text);
+        
+        return properties.getTree();
+    }
+    
+    /* A table of two to five columns with a header row, as in 2darray.conf. */
+    private static Map<String, Object> table(Random random) {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        List<Object> rows = new ArrayList<Object>();
+        int columns = 2 + random.nextInt(4);
+        int count = 1 + random.nextInt(8);
+        
+        for (int r = 0; r <= count; r++) {
+            List<Object> row = new ArrayList<Object>();
+            
+            for (int c = 0; c < columns; c++)
+                row.add(r == 0 ? "column" + c : string(random, 8));
+            
+            rows.add(row);
+        }
+        
+        root.put(string(random, 4) + "table", rows);
+        return root;
+    }
+    
+    private static String string(Random random, int maximum) {
+        StringBuilder s = new StringBuilder();
+        int length = random.nextInt(maximum);
+        
+        for (int i = 0; i < length; i++)
+            s.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        
+        return s.toString();
+    }
+    
+    private static List<Object> list(Object first, Object second) {
+        List<Object> list = new ArrayList<Object>();
+        
+        list.add(first);
+        list.add(second);
+        return list;
+    }
+}
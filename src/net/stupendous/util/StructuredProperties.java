@@ -22,11 +22,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.AbstractMap.SimpleEntry;
-
-import net.stupendous.util.StructuredPropertiesSymbol.Type;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * StructuredProperties is a Domain Specific Language for structured
@@ -314,7 +318,10 @@ public class StructuredProperties {
      * 
      * Typically you wil do this if you want to verify the parser is parsing
      * files correctly. It has little use other than to someone working with
-     * the internals of the parser.
+     * the internals of the parser. Each parse then prints the last symbols
+     * and decisions of the parser to stdout when it finishes; to keep a
+     * trace of a single configuration, and see it only when parsing fails,
+     * use StructuredPropertiesOptions.setTraceSize() instead.
      * 
      * @param debuging	
      */
@@ -323,13 +330,39 @@ public class StructuredProperties {
         StructuredProperties.debugging = debuging;
     }
 
+    /**
+     * The parser, the lexers and the include cache report a configuration
+     * they cannot read with a plain java.lang.Error; its subclasses, such as
+     * OutOfMemoryError and StackOverflowError, come from the VM and must not
+     * be taken for a bad configuration.
+     * 
+     * @param e the Error that was caught
+     * @return true if e reports a problem with the configuration
+     */
+    
+    static boolean isConfigurationError(Error e) {
+        return e.getClass() == Error.class;
+    }
+
     /* Instance Variables and Methods */
     
-    private StructuredPropertiesLexer lexer                 = null;
-    private ArrayList<StructuredPropertiesSymbol> symbols   = new ArrayList<StructuredPropertiesSymbol>();
-    private HashMap<String, Object> root                    = null;
-    private int currentSymbolIndex                          = 0;
-    private StructuredPropertiesSymbol currentSymbol        = null;
+    private final StructuredPropertiesOptions options;
+    private final StructuredPropertiesPath[] paths          = new StructuredPropertiesPath[256];
+    
+    /* Everything a load produces, replaced whole by the next load. */
+    private volatile StructuredPropertiesSnapshot snapshot  = new StructuredPropertiesSnapshot(null, null, null, null);
+
+    /* Used by reload(), which loads the new configuration itself. */
+    private StructuredProperties(StructuredPropertiesOptions options) {
+        this.options = options;
+    }
+
+    /* Used by StructuredPropertiesImage, which builds the tree itself. */
+    StructuredProperties(StructuredPropertiesOptions options, Map<String, Object> root, StructuredPropertiesLines lines) {
+        this.options = options;
+        this.snapshot = new StructuredPropertiesSnapshot(root, lines, null, 
+                options.isIndexed() ? new StructuredPropertiesIndex(root) : null);
+    }
 
     /**
      * Parses the File as a Structured Properties configuration file.
@@ -339,15 +372,21 @@ public class StructuredProperties {
      */
     
     public StructuredProperties (File configFile) throws Error {
-        InputStream in;
-        
-        try {
-            in = new FileInputStream(configFile);
-            this.lexer = new StructuredPropertiesLexer(in);
-            parse();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        this(configFile, new StructuredPropertiesOptions());
+    }
+
+    /**
+     * Parses the File as a Structured Properties configuration file, using
+     * the given options.
+     * 
+     * @param configFile
+     * @param options
+     * @throws Error
+     */
+    
+    public StructuredProperties (File configFile, StructuredPropertiesOptions options) throws Error {
+        this.options = options;
+        load(configFile);
     }
 
     /**
@@ -358,8 +397,21 @@ public class StructuredProperties {
      */
     
     public StructuredProperties(java.io.Reader in) throws Error {
-        this.lexer = new StructuredPropertiesLexer(in);
-        parse();
+        this(in, new StructuredPropertiesOptions());
+    }
+
+    /**
+     * Parses the Reader as a Structured Properties configuration file, using
+     * the given options.
+     * 
+     * @param in
+     * @param options
+     * @throws Error
+     */
+    
+    public StructuredProperties(java.io.Reader in, StructuredPropertiesOptions options) throws Error {
+        this.options = options;
+        load(in);
     }
 
     /**
@@ -370,20 +422,37 @@ public class StructuredProperties {
      */
     
     public StructuredProperties(java.io.InputStream in) throws Error {
-        this.lexer = new StructuredPropertiesLexer(in);
-        parse();
+        this(in, new StructuredPropertiesOptions());
+    }
+    
+    /**
+     * Parses the InputStream as a Structured Properties configuration file,
+     * using the given options.
+     * 
+     * @param in
+     * @param options
+     * @throws Error
+     */
+    
+    public StructuredProperties(java.io.InputStream in, StructuredPropertiesOptions options) throws Error {
+        this.options = options;
+        load(in);
     }
     
     private static void usage(String [ ] args) {
     	String usageString = 
     		"\nUsage: structuredproperties <fiename> [<key>]\n" +
+    		"       structuredproperties --compile <filename> <image>\n" +
     		"\n" +
     		"This program will parse a Structured Properties Configuration file\n" +
     		"and then perform a toString() on the root HashMap, outputting the\n" +
     		"parsed configuration to stdout.\n" +
     		"\n" +
     		"Optionally if you provide a key path, it will instead attempt to\n" +
-    		"dump the associated configuration item.";
+    		"dump the associated configuration item.\n" +
+    		"\n" +
+    		"With --compile, it instead compiles the file into a binary image\n" +
+    		"that StructuredPropertiesImage.load() can read without parsing.";
     	
     	System.out.println(usageString);
     }
@@ -407,6 +476,16 @@ public class StructuredProperties {
             System.exit(1);
         }
         
+        if (args[0].equals("--compile")) {
+            if (args.length != 3) {
+                usage(args);
+                System.exit(1);
+            }
+            
+            StructuredPropertiesImage.compile(new File(args[1]), new File(args[2]));
+            System.exit(0);
+        }
+        
         File f = new File(args[0]);
        
         StructuredProperties.setDebugging(false);
@@ -414,8 +493,8 @@ public class StructuredProperties {
 
         switch (args.length) {
         case 1:
-            for (String key : c.getRoot().keySet()) {
-            	System.out.println(key + " = " + c.getRoot().get(key));
+            for (String key : c.getTree().keySet()) {
+            	System.out.println(key + " = " + c.getTree().get(key));
             }
             break;
         case 2:
@@ -439,10 +518,16 @@ public class StructuredProperties {
      * <p>
      * @param key
      * @param defaultValue
-     * @return HashMap, ArrayList, String
+     * @return Map, List, String
      */
     
     public Object getProperty(String defaultValue, String key) {
+    	StructuredPropertiesIndex index = snapshot.getIndex();
+    	
+    	/* split() would drop empty parts from the end, the index would not. */
+    	if (index != null && !key.endsWith("."))
+    		return indexed(index, key, key);
+    	
     	String a[] = key.split("\\.");
    	
     	return getProperty(a);
@@ -462,26 +547,49 @@ public class StructuredProperties {
      * 
      * @param defaultValue
      * @param keyparts
-     * @return HashMap, ArrayList, String
+     * @return Map, List, String
      */
     
     public Object getProperty(String... keyparts) {
     	
+    	StructuredPropertiesSnapshot s = snapshot;
+    	StructuredPropertiesIndex index = s.getIndex();
+    	Map<String, Object> root = s.getRoot();
     	int i = 0;
     	boolean found = true;
     	Object def = null;
     	
-    	if (keyparts.length == 1)
-    		return root.get(keyparts[0]);
+    	if (index != null && keyparts.length > 1) {
+    		i = index.find(keyparts);
+    		
+    		/* A key with a . in it is not in the index. */
+    		if (i != StructuredPropertiesIndex.UNINDEXED) {
+    			def = i < 0 || index.isListed(i) ? null : index.value(i);
+    			
+    			if (def == null)
+    				missed(keyparts);
+    			
+    			return def;
+    		}
+    	}
+    	
+    	if (keyparts.length == 1) {
+    		def = root.get(keyparts[0]);
+    		
+    		if (def == null)
+    			missed(keyparts);
+    		
+    		return def;
+    	}
     	
     	if (keyparts.length == 0)
     		return null;
 
-    	HashMap<?, ?> hmap = root;
+    	Map<?, ?> hmap = root;
  	
     	for (i = 0; i < keyparts.length - 1; i++) {
-    		if (hmap.get(keyparts[i]) instanceof HashMap<?, ?>) {
-    			hmap = (HashMap<?, ?>) hmap.get(keyparts[i]);
+    		if (hmap.get(keyparts[i]) instanceof Map<?, ?>) {
+    			hmap = (Map<?, ?>) hmap.get(keyparts[i]);
     		}
     		else
     			found = false;
@@ -490,21 +598,340 @@ public class StructuredProperties {
     	if (found)
     		def = hmap.get(keyparts[keyparts.length - 1]);
     	
+    	if (def == null)
+    		missed(keyparts);
+    	
     	return def;
     }
    
+    private Object indexed(StructuredPropertiesIndex index, String path, Object missed) {
+        Object value = index.property(path);
+        
+        if (value == null)
+            missed(missed);
+        
+        return value;
+    }
+   
+    /**
+     * Returns the object/string at a path that was compiled in advance. This
+     * is the fastest way to read the same property again and again, as the
+     * key does not need to be split up on every call.
+     * <p>
+     * example:
+     * <p>
+     * <pre>
+     * StructuredPropertiesPath ip = StructuredPropertiesPath.compile("options.server.ip-address");
+     * c.getProperty(ip);
+     * </pre>
+     * 
+     * @param path
+     * @return Map, List, String
+     */
+    
+    public Object getProperty(StructuredPropertiesPath path) {
+        Object value = path.resolve(snapshot.getRoot());
+        
+        if (value == null)
+            missed(path);
+        
+        return value;
+    }
+   
+    /**
+     * Returns the line of the configuration file that the entry at a path
+     * of keys separated by '.' came from, or -1 if it is not known. Line
+     * numbers are only recorded if line tracking is turned on in the
+     * options; it is off by default.
+     * 
+     * @param path
+     * @return int
+     */
+    
+    public int getLine(String path) {
+        return snapshot.getLine(path(path));
+    }
+
+    /**
+     * Returns the line of the configuration file that the entry at a
+     * compiled path came from, or -1 if it is not known.
+     * 
+     * @param path
+     * @return int
+     */
+    
+    public int getLine(StructuredPropertiesPath path) {
+        return snapshot.getLine(path);
+    }
+    
+    /* The compiled paths for the keys given to the typed accessors, one
+     * for each slot, so that keys made up as the program runs cannot grow
+     * the cache without bound. Another key with the same slot replaces the
+     * path there. Threads may race to fill a slot; a path's fields are
+     * final, so whichever one a thread sees is complete.
+     */
+    private StructuredPropertiesPath path(String key) {
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & (paths.length - 1);
+        StructuredPropertiesPath path = paths[slot];
+        
+        if (path == null || !key.equals(path.key())) {
+            path = StructuredPropertiesPath.compile(key);
+            paths[slot] = path;
+        }
+        
+        return path;
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as an int,
+     * or defaultValue if there is no such property.
+     * <p>
+     * The typed accessors convert the string in the configuration for you,
+     * and throw an Error naming it if it cannot be converted, along with the
+     * line it came from if line tracking is on. The converted value is
+     * remembered with the string it came from, so reading it again neither
+     * parses nor allocates until the string is replaced.
+     * <p>
+     * example:
+     * <p>
+     * <pre>
+     * int port = c.getInt(6667, "options.port");
+     * </pre>
+     * 
+     * @param defaultValue
+     * @param key
+     * @return int
+     * @throws Error
+     */
+    
+    public int getInt(int defaultValue, String key) throws Error {
+        return getInt(defaultValue, path(key));
+    }
+    
+    /**
+     * Please see getInt(int defaultValue, String key);
+     * 
+     * @param defaultValue
+     * @param path
+     * @return int
+     * @throws Error
+     */
+    
+    public int getInt(int defaultValue, StructuredPropertiesPath path) throws Error {
+        return (int) path.resolve(this, StructuredPropertiesValues.INT, defaultValue);
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as a long,
+     * or defaultValue if there is no such property.
+     * 
+     * @param defaultValue
+     * @param key
+     * @return long
+     * @throws Error
+     */
+    
+    public long getLong(long defaultValue, String key) throws Error {
+        return getLong(defaultValue, path(key));
+    }
+    
+    /**
+     * Please see getLong(long defaultValue, String key);
+     * 
+     * @param defaultValue
+     * @param path
+     * @return long
+     * @throws Error
+     */
+    
+    public long getLong(long defaultValue, StructuredPropertiesPath path) throws Error {
+        return path.resolve(this, StructuredPropertiesValues.LONG, defaultValue);
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as a double,
+     * or defaultValue if there is no such property.
+     * 
+     * @param defaultValue
+     * @param key
+     * @return double
+     * @throws Error
+     */
+    
+    public double getDouble(double defaultValue, String key) throws Error {
+        return getDouble(defaultValue, path(key));
+    }
+    
+    /**
+     * Please see getDouble(double defaultValue, String key);
+     * 
+     * @param defaultValue
+     * @param path
+     * @return double
+     * @throws Error
+     */
+    
+    public double getDouble(double defaultValue, StructuredPropertiesPath path) throws Error {
+        return Double.longBitsToDouble(path.resolve(this, StructuredPropertiesValues.DOUBLE, 
+                Double.doubleToRawLongBits(defaultValue)));
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as a boolean,
+     * or defaultValue if there is no such property. true, yes, on and 1 are
+     * true, false, no, off and 0 are false, ignoring case.
+     * 
+     * @param defaultValue
+     * @param key
+     * @return boolean
+     * @throws Error
+     */
+    
+    public boolean getBoolean(boolean defaultValue, String key) throws Error {
+        return getBoolean(defaultValue, path(key));
+    }
+    
+    /**
+     * Please see getBoolean(boolean defaultValue, String key);
+     * 
+     * @param defaultValue
+     * @param path
+     * @return boolean
+     * @throws Error
+     */
+    
+    public boolean getBoolean(boolean defaultValue, StructuredPropertiesPath path) throws Error {
+        return path.resolve(this, StructuredPropertiesValues.BOOLEAN, defaultValue ? 1 : 0) != 0;
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as a
+     * duration in the given unit, or defaultValue if there is no such
+     * property. Durations are a whole number followed by one of the units
+     * ns, us, ms, s, m, h or d, such as "30s"; a number on its own is in
+     * milliseconds.
+     * <p>
+     * example:
+     * <p>
+     * <pre>
+     * long timeout = c.getDuration(5000, TimeUnit.MILLISECONDS, "options.timeout");
+     * </pre>
+     * 
+     * @param defaultValue
+     * @param unit
+     * @param key
+     * @return long
+     * @throws Error
+     */
+    
+    public long getDuration(long defaultValue, TimeUnit unit, String key) throws Error {
+        return getDuration(defaultValue, unit, path(key));
+    }
+    
+    /**
+     * Please see getDuration(long defaultValue, TimeUnit unit, String key);
+     * 
+     * @param defaultValue
+     * @param unit
+     * @param path
+     * @return long
+     * @throws Error
+     */
+    
+    public long getDuration(long defaultValue, TimeUnit unit, StructuredPropertiesPath path) throws Error {
+        long nanos = path.resolve(this, StructuredPropertiesValues.DURATION, -1);
+        
+        /* No duration can be negative, so -1 means there was none. */
+        if (nanos < 0)
+            return defaultValue;
+        
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Returns the property at the path indicated by the string key as a
+     * number of bytes, or defaultValue if there is no such property. Sizes
+     * are a whole number optionally followed by k, m, g or t (with or
+     * without a trailing b or ib, in any case), which are all multiples of
+     * 1024, such as "64k" or "10MB".
+     * 
+     * @param defaultValue
+     * @param key
+     * @return long
+     * @throws Error
+     */
+    
+    public long getByteSize(long defaultValue, String key) throws Error {
+        return getByteSize(defaultValue, path(key));
+    }
+    
+    /**
+     * Please see getByteSize(long defaultValue, String key);
+     * 
+     * @param defaultValue
+     * @param path
+     * @return long
+     * @throws Error
+     */
+    
+    public long getByteSize(long defaultValue, StructuredPropertiesPath path) throws Error {
+        return path.resolve(this, StructuredPropertiesValues.BYTES, defaultValue);
+    }
+   
     /**
      * This method (as well as the constructors and the other load methods) loads
      * and parses a Structured Properties Configuration file.
+     * <p>
+     * Loading is safe while other threads read this configuration: they go
+     * on reading the previous version until the new one has been parsed,
+     * and then see all of it at once. If it fails to parse, the previous
+     * version stays. See getSnapshot().
  	 *
      * @param in
      * @throws Error
      */
 
     public void load(java.io.Reader reader) {
-        this.lexer = new StructuredPropertiesLexer(reader);
-        parse();
+        Load load = new Load();
+        boolean parsed = false;
+        
+        load.begin();
+        
+        try {
+            load.parse(load.parser(reader));
+            parsed = true;
+        } finally {
+            load.end(null, parsed);
+        }
+    }
+    
+    /**
+     * Please see load(java.io.Reader reader);
+     * <p>
+     * The file is closed before this method returns. If the options ask for
+     * the file to be memory mapped, it is mapped read only and lexed straight
+     * from the mapping with the StructuredPropertiesByteLexer. The mapping
+     * does not hold the file open, and nothing refers to it once the file has
+     * been parsed, so it is unmapped the next time the garbage collector
+     * reclaims it; Java offers no way of unmapping it sooner.
+     * 
+     * @param configFile
+     * @throws Error
+     */
 
+    public void load(File configFile) throws Error {
+        Load load = new Load();
+        boolean parsed = false;
+        
+        load.begin();
+        
+        try {
+            load.read(configFile);
+            parsed = true;
+        } finally {
+            load.end(configFile.getPath(), parsed);
+        }
     }
     
     /**
@@ -515,233 +942,481 @@ public class StructuredProperties {
      */
 
     public void load(java.io.InputStream in) throws Error {
-        this.lexer = new StructuredPropertiesLexer(in);
-        parse();
-    }
-
-    public HashMap<String, Object> getRoot() {
-        return root;
-    }
-
-    private void parse() throws Error {
-        StructuredPropertiesSymbol symbol;
-
-        if (debugging)
-        	System.out.println("Scanner debugging:");
+        Load load = new Load();
+        boolean parsed = false;
         
-        try {
-            symbol = lexer.scan();
+        load.begin();
         
-            while (symbol != null && symbol.type != Type.EOF) {
-            	if (debugging) 
-            		System.out.printf(" %d %s\n", symbols.size(), symbol.toString());
-
-            	
-            	symbols.add(symbol);
-                symbol = lexer.scan();
-            }
+        try {
+            if (options.isLazy())
+                load.parseLazy(ByteBuffer.wrap(readFully(in)));
+            else if (options.isIncremental() || options.isParallel())
+                load.parse(ByteBuffer.wrap(readFully(in)), null);
+            else
+                load.parse(load.parser(in));
             
-            symbols.add(new StructuredPropertiesSymbol(Type.EOF, null, 0));
-        } catch (IOException e) {
-            e.printStackTrace();
+            parsed = true;
+        } finally {
+            load.end(null, parsed);
         }
+    }
+
+    /**
+     * Loads the current contents of configFile into a new StructuredProperties
+     * with the same options as this one. This configuration is not changed,
+     * so threads still reading from it are not disturbed.
+     * <p>
+     * If the options are incremental, only the top-level entries of the file
+     * that have changed since this configuration was loaded are parsed; the
+     * values of the others are taken from this configuration, which makes
+     * a small edit to a large file cheap to pick up. The file still has to
+     * be read and scanned for where its entries start. Unless the
+     * configuration is frozen, the two configurations then share those
+     * HashMaps and ArrayLists, so a change to one is seen in the other.
+     * 
+     * @param configFile
+     * @return the new configuration.
+     * @throws Error if the file cannot be read or parsed.
+     */
+    
+    public StructuredProperties reload(File configFile) throws Error {
+        StructuredProperties properties = new StructuredProperties(options);
         
-        if (debugging) {
-            System.out.println("Finished lexing the file.");
-            System.out.println("Size of symbol array: " + symbols.size());
+        if (!options.isIncremental() || options.isLazy()) {
+            properties.load(configFile);
+            return properties;
+        }
+        
+        Load load = properties.new Load();
+        boolean parsed = false;
+        
+        load.directory = configFile.getAbsoluteFile().getParentFile();
+        load.begin();
+        
+        try {
+            load.parse(ByteBuffer.wrap(readFile(configFile)), snapshot);
+            parsed = true;
+        } catch (IOException e) {
+            throw new Error("Unable to read configuration: " + e.getMessage(), e);
+        } finally {
+            load.end(configFile.getPath(), parsed);
         }
         
-        if (symbols.size() == 0)
-            throw new Error("Empty configuration.");
+        return properties;
+    }
 
-        currentSymbol = symbols.get(currentSymbolIndex);
-        root = parseHashMap();
+    /**
+     * Returns the root HashMap of the configuration, or null if nothing has
+     * been loaded. Blocks in it are HashMaps and ArrayLists.
+     * <p>
+     * A configuration loaded frozen, lazily or from an image is not built
+     * from HashMaps; use getTree() for those.
+     * 
+     * @return HashMap
+     * @throws Error if the configuration is not built from HashMaps.
+     */
+    
+    @SuppressWarnings("unchecked")
+    public HashMap<String, Object> getRoot() throws Error {
+        Map<String, Object> root = snapshot.getRoot();
+        
+        if (root == null || root instanceof HashMap)
+            return (HashMap<String, Object>) root;
+        
+        throw new Error("The configuration is not built from HashMaps; use getTree() to read it.");
     }
+
+    /**
+     * Returns the root of the configuration, or null if nothing has been
+     * loaded, however it was loaded. Blocks in the configuration are
+     * HashMaps and ArrayLists, or StructuredPropertiesMaps and
+     * StructuredPropertiesLists if the configuration was loaded frozen.
+     * Lazy and image configurations have Maps and Lists of their own.
+     * 
+     * @return Map
+     */
     
-    private Error expectedError(String expected) throws Error {
-        return new Error(String.format(
-            "Parse error on line %d: Expected symbol %s, got %s [%s].", 
-            currentSymbol.line, expected, currentSymbol.type, currentSymbol.object));
+    public Map<String, Object> getTree() {
+        return snapshot.getRoot();
     }
+
+    /**
+     * Returns the index of every path in the configuration, or null unless
+     * the options ask for one to be built.
+     * 
+     * @return StructuredPropertiesIndex
+     * @see StructuredPropertiesOptions#setIndexed(boolean)
+     */
     
-    private void nextSymbol() throws Error {
-    	if (currentSymbolIndex + 1 == symbols.size())
-    		throw new Error("Unexpected EOF in configuration. Is the configuration file complete?");
-    	
-        currentSymbolIndex++;
-        currentSymbol = symbols.get(currentSymbolIndex);
-        
-        if (debugging)
-        	System.out.printf("%s :: %d : advanced Symbol to: %s\n",
-        			Thread.currentThread().getStackTrace()[2].getMethodName(),
-        			Thread.currentThread().getStackTrace()[2].getLineNumber(),
-        			currentSymbol.toString());
+    public StructuredPropertiesIndex getIndex() {
+        return snapshot.getIndex();
     }
 
-    private void prevSymbol() throws Error {
-    	assert(currentSymbolIndex > 0);
-    	
-        currentSymbolIndex--;
-        currentSymbol = symbols.get(currentSymbolIndex);
-        
-        if (debugging)
-        	System.out.printf("%s :: %d : rewound Symbol to: %s\n",
-        			Thread.currentThread().getStackTrace()[2].getMethodName(),
-        			Thread.currentThread().getStackTrace()[2].getLineNumber(),
-        			currentSymbol.toString());
+    /**
+     * Returns the version of the configuration loaded most recently. Every
+     * load publishes a new snapshot once it has finished, so this is always
+     * a complete configuration, and stays the same however often this one
+     * is loaded again.
+     * 
+     * @return StructuredPropertiesSnapshot
+     */
+    
+    public StructuredPropertiesSnapshot getSnapshot() {
+        return snapshot;
     }
 
-    private HashMap<String, Object> parseHashMap() throws Error {
-        HashMap<String, Object> map = new HashMap<String, Object>(); 
-        boolean isRoot = false;
+    /**
+     * Returns the options this configuration was loaded with.
+     * 
+     * @return StructuredPropertiesOptions
+     */
+    
+    public StructuredPropertiesOptions getOptions() {
+        return options;
+    }
+    
+    static MappedByteBuffer map(File configFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(configFile, "r");
         
-        if (currentSymbolIndex == 0)
-            isRoot = true;
-
-        /* Iterate until we get to the end of the defined block */
-        while (currentSymbol.type == Type.STRING) {
-            SimpleEntry<String, Object> entry = parseKeyValue();
-            map.put(entry.getKey(), entry.getValue());
+        try {
+            FileChannel channel = file.getChannel();
+            
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new Error("Configuration is too large to map: " + configFile);
+            
+            /* The mapping stays valid after the channel is closed. */
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
         }
+    }
+    
+    static byte[] readFile(File configFile) throws IOException {
+        InputStream in = new FileInputStream(configFile);
         
-        switch (currentSymbol.type) {
-        case EOF:
-        	if (isRoot)
-        		return map;
-        	
-        	throw expectedError(String.format("%s or %s", Type.STRING, Type.BLOCK_END));
-        case BLOCK_END:
-        	return map;
-        default:
-        	throw expectedError(Type.BLOCK_END.toString());
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
         }
     }
-
-    private SimpleEntry<String, Object> parseKeyValue() throws Error {
-        SimpleEntry<String, Object> entry;
-
-        if (currentSymbol.type != Type.STRING)
-            expectedError(Type.STRING.toString());
-        
-        /* Nasty little cast here, but we're not using that object at all. */
-        entry = new SimpleEntry<String, Object>(currentSymbol.object, (Object) null);
-        
-        nextSymbol();
-        
-        switch (currentSymbol.type) {
-        case BLOCK_START:
-            entry.setValue(parseBlock());
-            return entry;
-        case EQUALS:
-            nextSymbol();
-            
-            switch (currentSymbol.type) {
-            case STRING:
-                entry.setValue(currentSymbol.object);
-                nextSymbol();
-                return entry;
-            case BLOCK_START:
-                entry.setValue(parseBlock());
-                return entry;
-            default:
-                throw expectedError(String.format(Type.STRING.toString()));
+    
+    private static byte[] readFully(InputStream in) throws Error {
+        try {
+            /* Read straight into an array of the size the stream expects,
+             * growing it only if that turns out to be wrong.
+             */
+            byte[] bytes = new byte[Math.max(in.available(), 256)];
+            int length = 0;
+            int n;
+            
+            while ((n = in.read(bytes, length, bytes.length - length)) != -1) {
+                length += n;
+                
+                if (length < bytes.length)
+                    continue;
+                
+                int next = in.read();
+                
+                if (next == -1)
+                    break;
+                
+                bytes = Arrays.copyOf(bytes, length * 2);
+                bytes[length++] = (byte) next;
             }
-        	
-       	default:
-       		throw  expectedError(String.format("%s [{] or %s [=]", Type.BLOCK_START.toString(), Type.EQUALS.toString()));
+            
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        } catch (IOException e) {
+            throw new Error("Unable to read configuration: " + e.getMessage(), e);
         }
     }
-
-    private ArrayList<Object> parseArrayList() throws Error {
-        ArrayList<Object> list = new ArrayList<Object>();
-
-        while (currentSymbol.type != Type.BLOCK_END) {
-            switch (currentSymbol.type) {
-            case STRING:
-                list.add(currentSymbol.object);
-                nextSymbol();
-                break;
-            case BLOCK_START:
-                list.add(parseBlock());
-                break;
-            default:
-                throw expectedError(
-                        String.format(
-                                "%s, or %s",
-                                Type.STRING.toString(),
-                                Type.BLOCK_END.toString()
-                            )
-                        );
+    
+    /* Reports a lookup of path, a compiled path or the parts of one, that
+     * found nothing. Its String is only made if something is listening.
+     */
+    void missed(Object path) {
+        StructuredPropertiesMetrics metrics = options.getMetrics();
+        boolean recording = StructuredPropertiesEvents.isRecordingMisses();
+        
+        if (metrics == StructuredPropertiesMetrics.NONE && !recording)
+            return;
+        
+        String name = path instanceof String[] ? String.join(".", (String[]) path) : path.toString();
+        
+        metrics.missed(name);
+        
+        if (recording)
+            StructuredPropertiesEvents.missed(name);
+    }
+    
+    /* One load of the configuration. It builds the tree and everything
+     * that goes with it on its own, and publishes them as a new snapshot
+     * only once the parse has succeeded, so threads reading the
+     * configuration never see a half loaded one, and two threads loading
+     * it at once do not trip over each other.
+     */
+    private final class Load {
+        private Map<String, Object> root                    = null;
+        private StructuredPropertiesLines lines             = null;
+        private StructuredPropertiesEntries entries         = null;
+        
+        /* Where the file being loaded is, for its includes. */
+        private File directory                              = null;
+        
+        /* For the metrics and the flight recorder. */
+        private long started                                = 0;
+        private Object event                                = null;
+        private long bytes                                  = -1;
+        private int symbols                                 = 0;
+        private int depth                                   = 0;
+        
+        void begin() {
+            event = StructuredPropertiesEvents.beginParse();
+            started = System.nanoTime();
+        }
+        
+        void end(String source, boolean succeeded) {
+            /* A missing file is only reported, and leaves the last version in place. */
+            if (succeeded && root != null) {
+                StructuredPropertiesIndex index = options.isIndexed() ? new StructuredPropertiesIndex(root) : null;
+                
+                snapshot = new StructuredPropertiesSnapshot(root, lines, entries, index);
+            }
+            
+            long nanos = System.nanoTime() - started;
+            
+            if (!succeeded) {
+                symbols = 0;
+                depth = 0;
             }
+            
+            options.getMetrics().parsed(nanos, bytes, symbols, depth, succeeded);
+            StructuredPropertiesEvents.endParse(event, source, bytes, symbols, depth, succeeded);
         }
         
-        return list;
-    }
-
-    private Object parseBlock() throws Error {
-    	
-    	/* Parses a block from { ..... }
-    	 * 
-    	 * The idea is that we are given the currentSymbol pointing to 
-    	 * the open brace, and we eat tokens until we reach the close
-    	 * brace.
-    	 *  
-    	 */
-    	
-    	assert (currentSymbol.type == Type.BLOCK_START) : Type.BLOCK_START;
-    	
-    	nextSymbol();
-    	
-    	switch (currentSymbol.type) {
-    	case STRING:
-    		/* Its either a hashmap or an arraylist. The only way to know for
-    		 * sure is to advance the token an extra step then rewind when we're
-    		 * done.
-    		 */
-    		nextSymbol();
-    		switch(currentSymbol.type) {
-    		case STRING:
-                /* Must be an ArrayList */
-    			prevSymbol();
-            	ArrayList<Object> l1 = parseArrayList();
-            	assert (currentSymbol.type == Type.BLOCK_END) : Type.BLOCK_END;
-            	nextSymbol();
-            	return l1;
-    		case BLOCK_START:
-    		case EQUALS:
-                /* Its a HashMap */
-    			prevSymbol();
-            	HashMap<String, Object> map = parseHashMap();
-            	assert (currentSymbol.type == Type.BLOCK_END) : Type.BLOCK_END;
-            	nextSymbol();
-                return map;
+        void read(File configFile) throws Error {
+            directory = configFile.getAbsoluteFile().getParentFile();
+            
+            try {
+                if (options.isLazy()) {
+                    parseLazy(options.isMemoryMapped() ? map(configFile) : ByteBuffer.wrap(readFile(configFile)));
+                    return;
+                }
+                
+                if (options.isIncremental() || options.isParallel()) {
+                    /* An incremental configuration keeps the bytes, so needs its own copy. */
+                    if (options.isMemoryMapped() && !options.isIncremental())
+                        parse(map(configFile), null);
+                    else
+                        parse(ByteBuffer.wrap(readFile(configFile)), null);
+                    return;
+                }
+                
+                if (options.isMemoryMapped()) {
+                    parse(parser(map(configFile)));
+                    return;
+                }
+                
+                InputStream in = new FileInputStream(configFile);
+                
+                bytes = configFile.length();
+                
+                try {
+                    parse(parser(in));
+                } finally {
+                    in.close();
+                }
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+            } catch (IOException e) {
+                throw new Error("Unable to read configuration: " + e.getMessage(), e);
+            }
+        }
+        
+        /* The parsers come from a pool, and go back to it in parse(). */
+        StructuredPropertiesParser parser(InputStream in) throws Error {
+            switch (options.getLexer()) {
+            case UTF8:
+                return parser(ByteBuffer.wrap(readFully(in)));
             default:
-            	throw expectedError(String.format(
-                            "%s, %s or %s",
-                            Type.STRING.toString(),
-                            Type.BLOCK_START.toString(),
-                            Type.EQUALS.toString()
-                        ));
-    		}
-        case BLOCK_END:
-            /* There is no way to know what it could be, return null. */
-        	nextSymbol();
-            return null;
-        case BLOCK_START:
-            /* A block instead of a string means this is an array. */
-        	ArrayList<Object> l2 = parseArrayList();
-        	assert (currentSymbol.type == Type.BLOCK_END) : Type.BLOCK_END;
-        	nextSymbol();
-        	return l2;
-        default:
-            throw expectedError(
-                    String.format(
-                            "%s, %s or %s",
-                            Type.STRING.toString(),
-                            Type.BLOCK_START.toString(),
-                            Type.BLOCK_END.toString()
-                        )
-                    );
+                StructuredPropertiesParser parser = StructuredPropertiesParser.acquire();
+                
+                parser.reset(in);
+                ((StructuredPropertiesLexer) parser.getScanner()).setSymbolTable(symbolTable(parser));
+                return configured(parser);
+            }
+        }
+        
+        StructuredPropertiesParser parser(java.io.Reader in) {
+            StructuredPropertiesParser parser = StructuredPropertiesParser.acquire();
+            
+            parser.reset(in);
+            ((StructuredPropertiesLexer) parser.getScanner()).setSymbolTable(symbolTable(parser));
+            return configured(parser);
+        }
+        
+        StructuredPropertiesParser parser(ByteBuffer in) {
+            StructuredPropertiesParser parser = StructuredPropertiesParser.acquire();
+            
+            bytes = in.remaining();
+            parser.reset(in);
+            ((StructuredPropertiesByteLexer) parser.getScanner()).setSymbolTable(symbolTable(parser));
+            return configured(parser);
+        }
+        
+        private StructuredPropertiesParser configured(StructuredPropertiesParser parser) {
+            StructuredPropertiesScanner scanner = parser.getScanner();
+            boolean includes = options.getIncludeCache() != null;
+            
+            /* A pooled lexer may have had includes on for its last parse. */
+            if (scanner instanceof StructuredPropertiesByteLexer)
+                ((StructuredPropertiesByteLexer) scanner).setIncludes(includes);
+            else
+                ((StructuredPropertiesLexer) scanner).setIncludes(includes);
+            
+            parser.setDepthLimit(options.getDepthLimit());
+            
+            if (options.getTraceSize() > 0)
+                parser.setTrace(new StructuredPropertiesTrace(options.getTraceSize()));
+            
+            return parser;
+        }
+        
+        /* Only a table that lasts no longer than the parse can be pooled. */
+        private StructuredPropertiesSymbolTable symbolTable(StructuredPropertiesParser parser) {
+            if (options.getSymbolTable() != null)
+                return options.getSymbolTable();
+            
+            return parser.symbolTable();
+        }
+        
+        private StructuredPropertiesSymbolTable symbolTable() {
+            if (options.getSymbolTable() != null)
+                return options.getSymbolTable();
+            
+            return new StructuredPropertiesSymbolTable();
+        }
+        
+        void parse(StructuredPropertiesParser parser) throws Error {
+            StructuredPropertiesTreeBuilder builder = new StructuredPropertiesTreeBuilder(options.isFrozen());
+            
+            builder.setLineTracking(options.isLineTracking());
+            builder.setColumnar(options.isColumnar());
+            builder.setIncludes(options.getIncludeCache(), directory);
+            
+            try {
+                parser.parse(builder);
+            } finally {
+                symbols = parser.getSymbolCount();
+                depth = parser.getMaxDepth();
+                parser.release();
+            }
+            
+            root = builder.getRoot();
+            lines = builder.getLines();
+        }
+        
+        void parseLazy(ByteBuffer in) throws Error {
+            StructuredPropertiesLazy lazy = new StructuredPropertiesLazy(in, symbolTable(), options.isLineTracking());
+            
+            bytes = in.remaining();
+            
+            try {
+                root = lazy.root();
+                lines = lazy.getLines();
+                symbols = lazy.getSymbolCount();
+                depth = lazy.getMaxDepth();
+            } catch (Error e) {
+                if (!isConfigurationError(e))
+                    throw e;
+                
+                /* Parse it all, to report the error exactly as ever. */
+                parse(parser(in));
+                return;
+            }
+            
+            /* The lazy parse has no limit; a full one reports the block. */
+            if (depth > options.getDepthLimit())
+                parse(parser(in));
+        }
+        
+        /* Parses the configuration one top-level entry at a time, reusing the
+         * entries of previous, if there is one, that have not changed. The
+         * unchanged entries are found by matching them from the start and from
+         * the end of the file, which finds all of them for a single edit. The
+         * rest are parsed in parallel if the options ask for it.
+         */
+        void parse(ByteBuffer in, StructuredPropertiesSnapshot previous) throws Error {
+            StructuredPropertiesEntries current = StructuredPropertiesEntries.scan(in);
+            StructuredPropertiesEntries old = previous == null ? null : previous.getEntries();
+            
+            bytes = in.remaining();
+            
+            if (current == null) {
+                parse(parser(in));
+                return;
+            }
+            
+            int n = current.size();
+            int m = old == null ? 0 : old.size();
+            int prefix = 0;
+            int suffix = 0;
+            
+            while (prefix < n && prefix < m && current.same(prefix, old, prefix))
+                prefix++;
+            
+            while (suffix < n - prefix && suffix < m - prefix && current.same(n - 1 - suffix, old, m - 1 - suffix))
+                suffix++;
+            
+            StructuredPropertiesLines changed;
+            
+            try {
+                if (options.isParallel())
+                    changed = current.parseParallel(prefix, n - suffix, options, symbolTable());
+                else
+                    changed = current.parse(prefix, n - suffix, options, symbolTable());
+            } catch (Error e) {
+                if (!isConfigurationError(e))
+                    throw e;
+                
+                /* Parse it all, to report the error exactly as ever. */
+                parse(parser(in));
+                return;
+            }
+            
+            for (int i = 0; i < prefix; i++)
+                current.reuse(i, old, i);
+            
+            for (int i = 0; i < suffix; i++)
+                current.reuse(n - 1 - i, old, m - 1 - i);
+            
+            root = current.root(options.isFrozen());
+            entries = options.isIncremental() ? current : null;
+            lines = changed;
+            symbols = current.getSymbolCount();
+            depth = current.getMaxDepth();
+            
+            if (changed == null)
+                return;
+            
+            StructuredPropertiesLines previousLines = old == null ? null : previous.getLines();
+            
+            /* Carry over the lines inside the entries that were reused. */
+            if (previousLines != null) {
+                IdentityHashMap<Object, Integer> deltas = new IdentityHashMap<Object, Integer>();
+                
+                for (int i = 0; i < prefix + suffix; i++) {
+                    int j = i < prefix ? i : n - (prefix + suffix) + i;
+                    int k = i < prefix ? i : m - (prefix + suffix) + i;
+                    
+                    current.moved(j, current.line(j) - old.line(k), deltas);
+                }
+                
+                changed.putMoved(previousLines, deltas);
+            }
+            
+            for (int i = 0; i < n; i++)
+                changed.put(root, current.key(i), current.valueLine(i));
         }
     }
 }
@@ -0,0 +1,599 @@
+/* File: StructuredPropertiesByteLexer.java
+ *
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+/**
+ * A hand written lexer that reads a Structured Properties configuration
+ * directly from UTF-8 bytes.
+ * <p>
+ * It recognises exactly the same symbols as the JFlex lexer generated from
+ * structuredproperties.l, including its states for unquoted strings, quoted
+ * strings, continuation lines and comments, but it never decodes the input
+ * into characters. Every syntactically significant character in the grammar
+ * is ASCII, so the lexer only has to look at single bytes; the bytes of
+ * multibyte UTF-8 sequences can only ever be part of a string.
+ * <p>
+ * Strings are decoded only when a symbol's value is asked for. next()
+ * finds the extent of the next symbol, and value() turns it into a String,
+ * so a caller that only needs the structure of the file never allocates.
+ * scan() does both, for use by the StructuredPropertiesParser.
+ *
+ * @see StructuredPropertiesScanner
+ */
+public class StructuredPropertiesByteLexer implements StructuredPropertiesScanner {
+    /* Lexical states, named after the states in structuredproperties.l */
+    private static final int YYINITIAL                      = 0;
+    private static final int VALUE                          = 1;
+    private static final int PSTRING                        = 2;
+    private static final int PSTRING_WS_IGNORE              = 3;
+    private static final int QSTRING                        = 4;
+
+    /* The kinds of STRING symbol, which are decoded differently. */
+    private static final int ID                             = 0;
+    private static final int QUOTED                         = 1;
+    private static final int UNQUOTED                       = 2;
+
+    private static final byte[] INCLUDE                     = { '@', 'i', 'n', 'c', 'l', 'u', 'd', 'e' };
+
+    private ByteBuffer buffer                               = null;
+    private int position                                    = 0;
+    private int limit                                       = 0;
+    private int state                                       = YYINITIAL;
+    private int line                                        = 1;
+
+    /* The extent of the symbol returned by the last call to next(). */
+    private Type tokenType                                  = null;
+    private int tokenKind                                   = ID;
+    private int tokenStart                                  = 0;
+    private int tokenEnd                                    = 0;
+    private int tokenLine                                   = 0;
+    private boolean tokenEscaped                            = false;
+    private boolean includes                                = false;
+
+    private byte[] scratch                                  = new byte[256];
+    private StructuredPropertiesSymbolTable symbols         = new StructuredPropertiesSymbolTable();
+
+    /**
+     * Creates a lexer over the whole of the byte array.
+     *
+     * @param in
+     */
+
+    public StructuredPropertiesByteLexer(byte[] in) {
+        this(ByteBuffer.wrap(in));
+    }
+
+    /**
+     * Creates a lexer over the bytes between the position and the limit of
+     * the buffer. The buffer's own position and limit are not changed.
+     *
+     * @param in
+     */
+
+    public StructuredPropertiesByteLexer(ByteBuffer in) {
+        this.buffer = in;
+        this.position = in.position();
+        this.limit = in.limit();
+    }
+
+    /**
+     * Starts the lexer again on the bytes between the position and the
+     * limit of another buffer, keeping its symbol table and the space it
+     * decodes strings in.
+     *
+     * @param in
+     */
+
+    public void reset(ByteBuffer in) {
+        buffer = in;
+        position = in.position();
+        limit = in.limit();
+        state = YYINITIAL;
+        line = 1;
+        tokenType = null;
+        tokenKind = ID;
+        tokenStart = 0;
+        tokenEnd = 0;
+        tokenLine = 0;
+        tokenEscaped = false;
+    }
+
+    public StructuredPropertiesSymbol scan() {
+        switch (next()) {
+        case STRING:
+            return new StructuredPropertiesSymbol(Type.STRING, value(), tokenLine);
+        case BLOCK_START:
+            return new StructuredPropertiesSymbol(Type.BLOCK_START, "{", tokenLine);
+        case BLOCK_END:
+            return new StructuredPropertiesSymbol(Type.BLOCK_END, "}", tokenLine);
+        case EQUALS:
+            return new StructuredPropertiesSymbol(Type.EQUALS, "=", tokenLine);
+        case INCLUDE:
+            return new StructuredPropertiesSymbol(Type.INCLUDE, "@include", tokenLine);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Sets the table used to share the Strings of identical IDs, in place
+     * of the lexer's own.
+     *
+     * @param symbols
+     */
+
+    public void setSymbolTable(StructuredPropertiesSymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Sets whether @include is a directive. It is off by default, and then
+     * @include does not match, as before there were includes.
+     *
+     * @param includes
+     */
+
+    public void setIncludes(boolean includes) {
+        this.includes = includes;
+    }
+
+    /**
+     * Sets the line number of the first byte, for a lexer that starts part
+     * way through a configuration.
+     *
+     * @param line
+     */
+
+    void setLine(int line) {
+        this.line = line;
+    }
+
+    /**
+     * Returns the current line number of the lexer.
+     *
+     * @return int
+     */
+
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the offset into the buffer of the next byte to be read.
+     *
+     * @return int
+     */
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the line number of the symbol found by the last call to
+     * next().
+     *
+     * @return int
+     */
+
+    public int getTokenLine() {
+        return tokenLine;
+    }
+
+    /**
+     * Returns the offset into the buffer at which the symbol found by the
+     * last call to next() starts. For a quoted string this is the offset of
+     * the opening quote.
+     *
+     * @return int
+     */
+
+    public int getTokenStart() {
+        return tokenKind == QUOTED && tokenType == Type.STRING ? tokenStart - 1 : tokenStart;
+    }
+
+    /**
+     * Finds the next symbol in the input and returns its type, without
+     * decoding it. Returns Type.EOF at the end of the input.
+     *
+     * @return Type
+     * @throws Error if the input does not match the grammar
+     */
+
+    public Type next() throws Error {
+        while (position < limit) {
+            int c = buffer.get(position);
+
+            switch (state) {
+            case YYINITIAL:
+                if (isWhitespace(c)) {
+                    position++;
+                } else if (c == '\n' || c == '\r') {
+                    position = newlineEnd(position);
+                    line++;
+                } else if (c == '#') {
+                    position = commentEnd(position);
+                    line++;
+                } else if (c == '}') {
+                    return token(Type.BLOCK_END, position, ++position);
+                } else if (c >= 'a' && c <= 'z') {
+                    int start = position++;
+
+                    while (position < limit && isIdPart(buffer.get(position)))
+                        position++;
+
+                    tokenKind = ID;
+                    return token(Type.STRING, start, position);
+                } else if (c == '"') {
+                    startQuoted();
+                } else if (c == '=') {
+                    state = VALUE;
+                    return token(Type.EQUALS, position, ++position);
+                } else if (c == '{') {
+                    return token(Type.BLOCK_START, position, ++position);
+                } else if (c == '@' && includes && matches(position, INCLUDE)) {
+                    position += INCLUDE.length;
+                    return token(Type.INCLUDE, position - INCLUDE.length, position);
+                } else {
+                    throw noMatch();
+                }
+                break;
+
+            case VALUE:
+                if (isWhitespace(c)) {
+                    position++;
+                } else if (c == '"') {
+                    startQuoted();
+                } else if (c == '{') {
+                    state = YYINITIAL;
+                    return token(Type.BLOCK_START, position, ++position);
+                } else {
+                    /* Any other character starts an unquoted string, even
+                     * the ones that would end it.
+                     */
+                    tokenKind = UNQUOTED;
+                    tokenStart = position++;
+                    tokenEscaped = false;
+                    state = PSTRING;
+                }
+                break;
+
+            case PSTRING:
+                if (c == '}') {
+                    state = YYINITIAL;
+                    return token(Type.STRING, tokenStart, position);
+                } else if (c == '#') {
+                    /* The string belongs to the line it ended on. */
+                    token(Type.STRING, tokenStart, position);
+                    position = commentEnd(position);
+                    line++;
+                    state = YYINITIAL;
+                    return Type.STRING;
+                } else if (c == '\n' || c == '\r') {
+                    token(Type.STRING, tokenStart, position);
+                    position = newlineEnd(position);
+                    line++;
+                    state = YYINITIAL;
+                    return Type.STRING;
+                } else if (c == '\\') {
+                    position = continuationEnd(position);
+                    line++;
+                    tokenEscaped = true;
+                    state = PSTRING_WS_IGNORE;
+                } else {
+                    position = unquotedRunEnd(position);
+                }
+                break;
+
+            case PSTRING_WS_IGNORE:
+                if (isWhitespace(c)) {
+                    position++;
+                } else if (c == '\n') {
+                    throw noMatch();
+                } else {
+                    position++;
+                    state = PSTRING;
+                }
+                break;
+
+            case QSTRING:
+                if (c == '"') {
+                    state = YYINITIAL;
+                    position++;
+                    return token(Type.STRING, tokenStart, position - 1);
+                } else if (c == '\\') {
+                    tokenEscaped = true;
+                    position += isEscape(position + 1) ? 2 : 1;
+                } else if (c == '\n' || c == '\r') {
+                    throw noMatch();
+                } else {
+                    position = quotedRunEnd(position);
+                }
+                break;
+            }
+        }
+
+        /* Like the JFlex lexer, a string that is still open at the end of
+         * the input is dropped.
+         */
+        tokenType = Type.EOF;
+        tokenLine = line;
+        return Type.EOF;
+    }
+
+    /**
+     * Decodes the value of the STRING symbol found by the last call to
+     * next(). For any other symbol, returns null.
+     *
+     * @return String
+     */
+
+    public String value() {
+        if (tokenType != Type.STRING)
+            return null;
+
+        return value(getValueForm(), tokenStart, tokenEnd);
+    }
+
+    /* The form and extent of the STRING symbol found by the last call to
+     * next(), which value(int, int, int) decodes at any later time, as long
+     * as the lexer has not been reset.
+     */
+    int getValueForm() {
+        return tokenKind << 1 | (tokenEscaped ? 1 : 0);
+    }
+
+    int getValueStart() {
+        return tokenStart;
+    }
+
+    int getValueEnd() {
+        return tokenEnd;
+    }
+
+    String value(int form, int start, int end) {
+        boolean escaped = (form & 1) != 0;
+
+        switch (form >> 1) {
+        case QUOTED:
+            return escaped ? unescapeQuoted(start, end) : decode(start, end);
+        case UNQUOTED:
+            return escaped ? joinUnquoted(start, end) : decode(start, trimEnd(start, end));
+        default:
+            return symbols.intern(buffer, start, end);
+        }
+    }
+
+    private Type token(Type type, int start, int end) {
+        tokenType = type;
+        tokenStart = start;
+        tokenEnd = end;
+        tokenLine = line;
+        return type;
+    }
+
+    private void startQuoted() {
+        position++;
+        tokenKind = QUOTED;
+        tokenStart = position;
+        tokenEscaped = false;
+        state = QSTRING;
+    }
+
+    private static Error noMatch() {
+        /* The same message the JFlex lexer uses. */
+        return new Error("Error: could not match input");
+    }
+
+    /* Whether the bytes from i are those of word. */
+    private boolean matches(int i, byte[] word) {
+        if (limit - i < word.length)
+            return false;
+
+        for (int j = 0; j < word.length; j++) {
+            if (buffer.get(i + j) != word[j])
+                return false;
+        }
+
+        return true;
+    }
+
+    /* WS = [ \t\v\f] */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == 0x0b || c == '\f';
+    }
+
+    /* The trailing whitespace removed from unquoted strings; Java's \s */
+    private static boolean isTrailingWhitespace(int c) {
+        return isWhitespace(c) || c == '\n' || c == '\r';
+    }
+
+    /* ID = [a-z][a-zA-Z0-9\-_]* */
+    private static boolean isIdPart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private boolean isEscape(int i) {
+        if (i >= limit)
+            return false;
+
+        int c = buffer.get(i);
+
+        return c == 't' || c == 'n' || c == 'r' || c == '"';
+    }
+
+    /* NL = \r|\n|\r\n, starting at i */
+    private int newlineEnd(int i) {
+        if (buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n')
+            return i + 2;
+
+        return i + 1;
+    }
+
+    /* #.*{NL} starting at i, where . is anything but \n. The longest match
+     * ends at the first \n, or failing that at the last \r in the input.
+     */
+    private int commentEnd(int i) {
+        int lastReturn = -1;
+
+        for (int j = i + 1; j < limit; j++) {
+            int c = buffer.get(j);
+
+            if (c == '\n')
+                return j + 1;
+            if (c == '\r')
+                lastReturn = j;
+        }
+
+        if (lastReturn < 0)
+            throw noMatch();
+
+        return lastReturn + 1;
+    }
+
+    /* \\{WS}*#.*{NL} or \\{WS}*{NL} starting at the backslash at i */
+    private int continuationEnd(int i) {
+        int j = i + 1;
+
+        while (j < limit && isWhitespace(buffer.get(j)))
+            j++;
+
+        if (j == limit)
+            throw noMatch();
+
+        int c = buffer.get(j);
+
+        if (c == '#')
+            return commentEnd(j);
+        if (c == '\n' || c == '\r')
+            return newlineEnd(j);
+
+        throw noMatch();
+    }
+
+    /* [^\n\r\\#}]+ */
+    private int unquotedRunEnd(int i) {
+        while (i < limit) {
+            int c = buffer.get(i);
+
+            if (c == '\n' || c == '\r' || c == '\\' || c == '#' || c == '}')
+                break;
+            i++;
+        }
+
+        return i;
+    }
+
+    /* [^\n\r\"\\]+ */
+    private int quotedRunEnd(int i) {
+        while (i < limit) {
+            int c = buffer.get(i);
+
+            if (c == '\n' || c == '\r' || c == '"' || c == '\\')
+                break;
+            i++;
+        }
+
+        return i;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && isTrailingWhitespace(buffer.get(end - 1)))
+            end--;
+
+        return end;
+    }
+
+    private String decode(int start, int end) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+
+        byte[] bytes = scratch(end - start);
+
+        for (int i = start; i < end; i++)
+            bytes[i - start] = buffer.get(i);
+
+        return new String(bytes, 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    private byte[] scratch(int size) {
+        if (scratch.length < size)
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+
+        return scratch;
+    }
+
+    /* Replays the QSTRING escape rules over the bytes between the quotes. */
+    private String unescapeQuoted(int start, int end) {
+        byte[] bytes = scratch(end - start);
+        int length = 0;
+
+        for (int i = start; i < end; i++) {
+            byte c = buffer.get(i);
+
+            if (c == '\\' && isEscape(i + 1)) {
+                switch (buffer.get(++i)) {
+                case 't': c = '\t'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                default:  c = '"';  break;
+                }
+            }
+
+            bytes[length++] = c;
+        }
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /* Replays the PSTRING and PSTRING_WS_IGNORE rules over a string that
+     * was continued onto following lines, dropping each continuation and
+     * the whitespace that starts the next line.
+     */
+    private String joinUnquoted(int start, int end) {
+        byte[] bytes = scratch(end - start);
+        int length = 0;
+
+        /* The first character is always kept, whatever it is. */
+        bytes[length++] = buffer.get(start);
+
+        for (int i = start + 1; i < end; i++) {
+            byte c = buffer.get(i);
+
+            if (c == '\\') {
+                i = continuationEnd(i);
+
+                while (isWhitespace(buffer.get(i)))
+                    i++;
+
+                c = buffer.get(i);
+            }
+
+            bytes[length++] = c;
+        }
+
+        while (length > 0 && isTrailingWhitespace(bytes[length - 1]))
+            length--;
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
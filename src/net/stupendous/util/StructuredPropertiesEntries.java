@@ -0,0 +1,422 @@
+/* File: StructuredPropertiesEntries.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+/**
+ * The top-level entries of a configuration held as UTF-8 bytes: where each
+ * one starts, the line it starts on and, once parsed, its key and value.
+ * <p>
+ * scan() finds the entries with the StructuredPropertiesByteLexer, without
+ * decoding anything, by following the braces at the top level. Each entry
+ * runs from its key to the key of the next one, so the comments and white
+ * space in between belong to the entry before. Any run of entries can then
+ * be parsed on its own with a lexer that starts at the first key, and gives
+ * exactly what a parse of the whole configuration gives for them.
+ * <p>
+ * Only configurations that are well formed at the top level are split.
+ * For anything else scan() returns null and the whole configuration should
+ * be parsed as usual, so that the errors reported are always the same.
+ */
+final class StructuredPropertiesEntries {
+    /* The least number of bytes worth parsing in a task of their own. */
+    private static final int MIN_PIECE                      = 64 * 1024;
+    
+    private final ByteBuffer buffer;
+    private int[] starts                                    = new int[64];
+    private int[] lines                                     = new int[64];
+    private int count                                       = 0;
+    
+    /* The key, value and line of the value of each entry, once parsed. */
+    private String[] keys                                   = null;
+    private Object[] values                                 = null;
+    private int[] valueLines                                = null;
+    
+    /* What the parsers of the entries got through, for the metrics. */
+    private int symbolCount                                 = 0;
+    private int maxDepth                                    = 0;
+
+    private StructuredPropertiesEntries(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Finds the top-level entries of the bytes between the position and the
+     * limit of the buffer, or returns null if they cannot be found because
+     * the configuration has an error at the top level. It also returns null
+     * for a configuration with an @include anywhere in it, as an included
+     * file may change when the entry that includes it does not.
+     */
+    
+    static StructuredPropertiesEntries scan(ByteBuffer in) {
+        StructuredPropertiesEntries entries = new StructuredPropertiesEntries(in);
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(in);
+        
+        /* Found whether or not includes are on, so that the full parse
+         * this falls back to can follow them or report them.
+         */
+        lexer.setIncludes(true);
+        
+        try {
+            while (true) {
+                /* A key, or the end of the configuration. */
+                Type type = lexer.next();
+                
+                if (type == Type.EOF)
+                    break;
+                if (type != Type.STRING)
+                    return null;
+                
+                entries.add(lexer.getTokenStart(), lexer.getTokenLine());
+                
+                /* Then "= value", "= { ... }" or "{ ... }". */
+                type = lexer.next();
+                
+                if (type == Type.EQUALS) {
+                    type = lexer.next();
+                    
+                    if (type == Type.STRING)
+                        continue;
+                }
+                
+                if (type != Type.BLOCK_START)
+                    return null;
+                
+                for (int depth = 1; depth > 0; ) {
+                    type = lexer.next();
+                    
+                    if (type == Type.BLOCK_START)
+                        depth++;
+                    else if (type == Type.BLOCK_END)
+                        depth--;
+                    else if (type == Type.EOF || type == Type.INCLUDE)
+                        return null;
+                }
+            }
+        } catch (Error e) {
+            if (!StructuredProperties.isConfigurationError(e))
+                throw e;
+            
+            return null;
+        }
+        
+        entries.keys = new String[entries.count];
+        entries.values = new Object[entries.count];
+        entries.valueLines = new int[entries.count];
+        return entries;
+    }
+
+    /**
+     * Returns the number of symbols parsed by parse() and parseParallel().
+     */
+    
+    synchronized int getSymbolCount() {
+        return symbolCount;
+    }
+    
+    /**
+     * Returns how deeply the blocks parsed by parse() and parseParallel()
+     * were nested.
+     */
+    
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    /**
+     * Returns the number of top-level entries.
+     */
+    
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the line entry i starts on.
+     */
+    
+    int line(int i) {
+        return lines[i];
+    }
+
+    /**
+     * Returns the last line entry i can have anything on: the line the next
+     * entry starts on.
+     */
+    
+    int lastLine(int i) {
+        return i + 1 < count ? lines[i + 1] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the parsed key of entry i.
+     */
+    
+    String key(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the parsed value of entry i.
+     */
+    
+    Object value(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns the line the parsed value of entry i is on.
+     */
+    
+    int valueLine(int i) {
+        return valueLines[i];
+    }
+
+    /**
+     * Returns whether entry i has exactly the same bytes as entry j of
+     * other.
+     */
+    
+    boolean same(int i, StructuredPropertiesEntries other, int j) {
+        return span(i).equals(other.span(j));
+    }
+
+    /**
+     * Takes the key and value of entry i from entry j of other, which must
+     * be the same(), and the line of the value, moved with the entry.
+     */
+    
+    void reuse(int i, StructuredPropertiesEntries other, int j) {
+        keys[i] = other.keys[j];
+        values[i] = other.values[j];
+        valueLines[i] = other.valueLines[j] + lines[i] - other.lines[j];
+    }
+
+    /**
+     * Parses entries from to to - 1, with the options of a StructuredProperties,
+     * and returns the line numbers of what was parsed inside their values,
+     * or null if line tracking is off. The lines of the values themselves
+     * are kept with the entries.
+     * 
+     * @throws Error if they do not parse.
+     */
+    
+    StructuredPropertiesLines parse(int from, int to, StructuredPropertiesOptions options,
+            StructuredPropertiesSymbolTable symbols) throws Error {
+        if (from == to)
+            return options.isLineTracking() ? new StructuredPropertiesLines() : null;
+        
+        ByteBuffer in = buffer.duplicate();
+        
+        in.limit(end(to - 1));
+        in.position(starts[from]);
+        
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(in);
+        StructuredPropertiesTreeBuilder builder = new StructuredPropertiesTreeBuilder(options.isFrozen());
+        
+        lexer.setLine(lines[from]);
+        lexer.setSymbolTable(symbols);
+        builder.setLineTracking(options.isLineTracking());
+        builder.setColumnar(options.isColumnar());
+        builder.setRecordingRootEntries(true);
+        StructuredPropertiesParser parser = new StructuredPropertiesParser(lexer);
+        
+        parser.setDepthLimit(options.getDepthLimit());
+        parser.parse(builder);
+        count(parser);
+        
+        List<Object> parsed = builder.getRootEntries();
+        
+        for (int i = from; i < to; i++) {
+            keys[i] = (String) parsed.get((i - from) * 3);
+            values[i] = parsed.get((i - from) * 3 + 1);
+            valueLines[i] = (Integer) parsed.get((i - from) * 3 + 2);
+        }
+        
+        return builder.getLines();
+    }
+
+    /* Pieces are parsed at the same time, so this is synchronized. */
+    private synchronized void count(StructuredPropertiesParser parser) {
+        symbolCount += parser.getSymbolCount();
+        maxDepth = Math.max(maxDepth, parser.getMaxDepth());
+    }
+
+    /**
+     * Parses entries from to to - 1 like parse(), but split into pieces of
+     * roughly equal size that are lexed and parsed at the same time on a
+     * ForkJoinPool: the one the caller is running in, or else the common
+     * pool. The pieces share symbols, so IDs are the same Strings they are
+     * in a single parse; the table only locks to add one, so the pieces
+     * do not wait on each other to look up the IDs they have in common.
+     * 
+     * @throws Error if they do not parse.
+     */
+    
+    StructuredPropertiesLines parseParallel(int from, int to, StructuredPropertiesOptions options,
+            StructuredPropertiesSymbolTable symbols) throws Error {
+        if (from == to)
+            return parse(from, to, options, symbols);
+        
+        int bytes = end(to - 1) - starts[from];
+        int parallelism = ForkJoinTask.inForkJoinPool()
+                ? ForkJoinTask.getPool().getParallelism()
+                : ForkJoinPool.getCommonPoolParallelism();
+        int pieceSize = Math.max(MIN_PIECE, bytes / (parallelism * 4));
+        
+        if (bytes < pieceSize * 2 || parallelism < 2)
+            return parse(from, to, options, symbols);
+        
+        /* The first entry of each piece, then to. */
+        int[] bounds = new int[bytes / pieceSize + 2];
+        int pieces = 0;
+        
+        bounds[0] = from;
+        
+        for (int i = from + 1; i < to; i++) {
+            if (starts[i] - starts[bounds[pieces]] >= pieceSize && pieces + 2 < bounds.length)
+                bounds[++pieces] = i;
+        }
+        
+        bounds[++pieces] = to;
+        
+        return new Piece(bounds, 0, pieces, options, symbols).invoke();
+    }
+    
+    /* Parses pieces lo to hi - 1 of bounds, and joins their lines. */
+    private class Piece extends RecursiveTask<StructuredPropertiesLines> {
+        private static final long serialVersionUID          = 1L;
+        
+        private final int[] bounds;
+        private final int lo;
+        private final int hi;
+        private final StructuredPropertiesOptions options;
+        private final StructuredPropertiesSymbolTable symbols;
+        
+        Piece(int[] bounds, int lo, int hi, StructuredPropertiesOptions options,
+                StructuredPropertiesSymbolTable symbols) {
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.options = options;
+            this.symbols = symbols;
+        }
+        
+        protected StructuredPropertiesLines compute() {
+            if (hi - lo == 1)
+                return parse(bounds[lo], bounds[hi], options, symbols);
+            
+            int mid = (lo + hi) >>> 1;
+            Piece right = new Piece(bounds, mid, hi, options, symbols);
+            
+            right.fork();
+            
+            StructuredPropertiesLines lines = new Piece(bounds, lo, mid, options, symbols).compute();
+            StructuredPropertiesLines rightLines = right.join();
+            
+            if (lines != null)
+                lines.putAll(rightLines);
+            
+            return lines;
+        }
+    }
+
+    /**
+     * Builds the root of the configuration from the parsed entries, as the
+     * StructuredPropertiesTreeBuilder would.
+     */
+    
+    Map<String, Object> root(boolean frozen) {
+        if (frozen) {
+            Object[] pairs = new Object[count * 2];
+            
+            for (int i = 0; i < count; i++) {
+                pairs[i * 2] = keys[i];
+                pairs[i * 2 + 1] = values[i];
+            }
+            
+            return new StructuredPropertiesMap(pairs, 0, pairs.length);
+        }
+        
+        HashMap<String, Object> root = new HashMap<String, Object>();
+        
+        for (int i = 0; i < count; i++)
+            root.put(keys[i], values[i]);
+        
+        return root;
+    }
+
+    /**
+     * Adds every block in the value of entry i, which has moved by delta
+     * lines, to deltas, so that their lines can be carried over. A table
+     * is a block, but the rows it makes as it is read are not.
+     */
+    
+    void moved(int i, int delta, Map<Object, Integer> deltas) {
+        ArrayList<Object> stack = new ArrayList<Object>();
+        
+        stack.add(values[i]);
+        
+        while (!stack.isEmpty()) {
+            Object value = stack.remove(stack.size() - 1);
+            
+            if (value instanceof Map<?, ?>)
+                stack.addAll(((Map<?, ?>) value).values());
+            else if (value instanceof List<?> && !(value instanceof StructuredPropertiesTable))
+                stack.addAll((List<?>) value);
+            else if (!(value instanceof StructuredPropertiesTable))
+                continue;
+            
+            deltas.put(value, delta);
+        }
+    }
+    
+    private int end(int i) {
+        return i + 1 < count ? starts[i + 1] : buffer.limit();
+    }
+    
+    private ByteBuffer span(int i) {
+        ByteBuffer span = buffer.duplicate();
+        
+        span.limit(end(i));
+        span.position(starts[i]);
+        return span;
+    }
+    
+    private void add(int start, int line) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        
+        starts[count] = start;
+        lines[count] = line;
+        count++;
+    }
+}
@@ -0,0 +1,145 @@
+/* File: StructuredPropertiesEvents.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events of StructuredProperties.
+ * <p>
+ * The event classes are only touched once the jdk.jfr module is known to
+ * be present, so a runtime without it simply records nothing. While no
+ * recording has an event enabled, all it costs is the check.
+ */
+final class StructuredPropertiesEvents {
+    private static final boolean AVAILABLE                  = available();
+    
+    private StructuredPropertiesEvents() {
+    }
+    
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Begins timing a parse, and returns the event to pass to endParse(), or
+     * null if parses are not being recorded.
+     */
+    
+    static Object beginParse() {
+        if (!AVAILABLE)
+            return null;
+        
+        ParseEvent event = new ParseEvent();
+        
+        if (!event.isEnabled())
+            return null;
+        
+        event.begin();
+        return event;
+    }
+    
+    /**
+     * Ends and records the parse begun by beginParse(), if it returned an
+     * event.
+     */
+    
+    static void endParse(Object parse, String source, long bytes, int symbols, int maxDepth, boolean succeeded) {
+        if (parse == null)
+            return;
+        
+        ParseEvent event = (ParseEvent) parse;
+        
+        event.end();
+        
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.bytes = bytes;
+            event.symbols = symbols;
+            event.maxDepth = maxDepth;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Returns whether lookups that miss are being recorded.
+     */
+    
+    static boolean isRecordingMisses() {
+        return AVAILABLE && new LookupMissEvent().isEnabled();
+    }
+    
+    /**
+     * Records a lookup of path that found nothing.
+     */
+    
+    static void missed(String path) {
+        LookupMissEvent event = new LookupMissEvent();
+        
+        event.path = path;
+        event.commit();
+    }
+    
+    @Name("net.stupendous.util.Parse")
+    @Label("Configuration Parse")
+    @Category("StructuredProperties")
+    @Description("A Structured Properties configuration was parsed")
+    static final class ParseEvent extends Event {
+        @Label("Source")
+        @Description("The file parsed, or null for a stream")
+        String source;
+        
+        @Label("Bytes")
+        @Description("The size of the configuration, or -1 if it is not known")
+        @DataAmount
+        long bytes;
+        
+        @Label("Symbols")
+        @Description("The number of symbols parsed")
+        int symbols;
+        
+        @Label("Max Depth")
+        @Description("How deeply the blocks parsed were nested")
+        int maxDepth;
+        
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+    
+    @Name("net.stupendous.util.LookupMiss")
+    @Label("Configuration Lookup Miss")
+    @Category("StructuredProperties")
+    @Description("A configuration lookup found nothing at its path")
+    static final class LookupMissEvent extends Event {
+        @Label("Path")
+        String path;
+    }
+}
@@ -0,0 +1,106 @@
+/* File: StructuredPropertiesHandler.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+/**
+ * Receives the contents of a Structured Properties configuration file as a
+ * sequence of events, in the order they appear in the file.
+ * <p>
+ * The StructuredPropertiesParser calls these methods directly as it reads
+ * symbols from the lexer, so an implementation can build its own model of
+ * the configuration, or skip parts of it entirely, without the parser ever
+ * creating a HashMap or ArrayList.
+ * <p>
+ * A file produces the following sequence:
+ * <pre>
+ *   startMap                   # the implied { } around the whole file
+ *     key value                # identifier = value
+ *     key startMap ... endBlock  # identifier { identifier = value ... }
+ *     key startList ... endBlock # identifier { value value ... }
+ *     key value(null)          # identifier { }
+ *     include                  # @include "file"
+ *   endBlock
+ * </pre>
+ * Inside a list, entries are reported with value(), startMap() or
+ * startList() without a preceding key().
+ * <p>
+ * Every event carries the line number of the symbol that caused it.
+ * 
+ * @see StructuredPropertiesParser
+ * @see StructuredPropertiesTreeBuilder
+ */
+public interface StructuredPropertiesHandler {
+    /**
+     * Called when a block that contains key/value entries begins. The
+     * root of the file is always reported as a map.
+     * 
+     * @param line
+     */
+    public void startMap(int line);
+    
+    /**
+     * Called when a block that contains a list of values begins.
+     * 
+     * @param line
+     */
+    public void startList(int line);
+    
+    /**
+     * Called with the key of an entry in a map. The next event describes
+     * the value of the entry.
+     * 
+     * @param key
+     * @param line
+     */
+    public void key(String key, int line);
+    
+    /**
+     * Called with a string value, either of the last key in a map, or as
+     * the next entry in a list. An empty block { } is reported as a null
+     * value, as there is no way to know whether it was meant to be a map or
+     * a list.
+     * 
+     * @param value
+     * @param line
+     */
+    public void value(String value, int line);
+    
+    /**
+     * Called when the most recently started map or list ends.
+     * 
+     * @param line
+     */
+    public void endBlock(int line);
+    
+    /**
+     * Called for an @include "path" directive among the entries of a map,
+     * whose entries are to be added to the map at that point. The path is
+     * as written, so relative paths are left to the handler to resolve.
+     * <p>
+     * The lexers only read @include once setIncludes(true) is called on
+     * them, and otherwise report it as input they cannot match. Handlers
+     * that do not support includes need not implement this; by default it
+     * throws an Error.
+     * 
+     * @param path
+     * @param line
+     */
+    public default void include(String path, int line) {
+        throw new Error(String.format("Configuration error on line %d: @include \"%s\" is not supported here.", line, path));
+    }
+}
@@ -0,0 +1,656 @@
+/* File: StructuredPropertiesImage.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A configuration compiled into a compact binary image, which can be
+ * loaded again without lexing or parsing anything.
+ * <p>
+ * The image holds a table of every distinct string in the configuration,
+ * a table of its blocks, and the entries of each block as indexes into
+ * them, with a small hash table for the keys of each map. Loading it maps
+ * the file and checks its header; the blocks and strings are only read
+ * when they are first used, and then remembered.
+ * <pre>
+ * StructuredPropertiesImage.compile(conf, image);      // at build time
+ * ...
+ * StructuredProperties c = StructuredPropertiesImage.load(conf, image);
+ * </pre>
+ * The image records the length and CRC-32 checksum of the file it was
+ * compiled from. load() reads the file to check them and, if the image is
+ * missing, damaged or was compiled from a different version of the file,
+ * just parses the file instead, so a stale image is never used.
+ * <p>
+ * The blocks of a loaded image are immutable, and behave like those of a
+ * frozen configuration: maps keep the order of the file, and a later
+ * duplicate key replaces the value of an earlier one.
+ */
+public final class StructuredPropertiesImage {
+    private static final int MAGIC                          = 0x53504931;   /* "SPI1" */
+    private static final int VERSION                        = 1;
+    
+    /* The header: magic, version, source length (a long), source CRC,
+     * string count, node count, the offsets of the sections that follow,
+     * and the length of the whole image.
+     */
+    private static final int SOURCE_LENGTH                  = 8;
+    private static final int SOURCE_CRC                     = 16;
+    private static final int STRING_COUNT                   = 20;
+    private static final int NODE_COUNT                     = 24;
+    private static final int STRING_OFFSETS                 = 28;
+    private static final int STRING_HASHES                  = 32;
+    private static final int NODES                          = 36;
+    private static final int TABLES                         = 40;
+    private static final int ENTRIES                        = 44;
+    private static final int DATA                           = 48;
+    private static final int LENGTH                         = 52;
+    private static final int HEADER_SIZE                    = 56;
+    
+    /* Each node is its kind, line, entry count, first entry and, for a
+     * map, the start and size of its hash table. Each entry is its key,
+     * value and line.
+     */
+    private static final int NODE_INTS                      = 6;
+    private static final int ENTRY_INTS                     = 3;
+    private static final int MAP                            = 0;
+    private static final int LIST                           = 1;
+    
+    /* A value is a node index, a string index i as -(i + 1), or NULL. */
+    private static final int NULL                           = Integer.MIN_VALUE;
+    
+    /* Cached for a NULL value, which has been read but is null. */
+    private static final Object EMPTY                       = new Object();
+
+    private final ByteBuffer image;
+    private final int stringOffsets;
+    private final int stringHashes;
+    private final int nodes;
+    private final int tables;
+    private final int entries;
+    private final int data;
+    private final String[] keys;
+
+    private StructuredPropertiesImage(ByteBuffer image) {
+        this.image = image;
+        this.stringOffsets = image.getInt(STRING_OFFSETS);
+        this.stringHashes = image.getInt(STRING_HASHES);
+        this.nodes = image.getInt(NODES);
+        this.tables = image.getInt(TABLES);
+        this.entries = image.getInt(ENTRIES);
+        this.data = image.getInt(DATA);
+        this.keys = new String[image.getInt(STRING_COUNT)];
+    }
+
+    /**
+     * Compiles the configuration in source into an image. The image is
+     * written to a temporary file alongside it and then moved into place,
+     * so a program loading it never sees half an image.
+     * 
+     * @param source
+     * @param image
+     * @throws Error if the configuration cannot be read or parsed, or the
+     *         image cannot be written.
+     */
+    
+    public static void compile(File source, File image) throws Error {
+        byte[] bytes = read(source);
+        File temporary = new File(image.getAbsoluteFile().getParentFile(), image.getName() + ".tmp");
+        
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            
+            try {
+                out.write(compile(bytes));
+            } finally {
+                out.close();
+            }
+            
+            try {
+                Files.move(temporary.toPath(), image.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw new Error("Unable to write image: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the configuration in source from image with the default
+     * options, or by parsing source if the image does not match it.
+     * 
+     * @param source
+     * @param image
+     * @return StructuredProperties
+     * @throws Error
+     */
+    
+    public static StructuredProperties load(File source, File image) throws Error {
+        return load(source, image, new StructuredPropertiesOptions());
+    }
+
+    /**
+     * Loads the configuration in source from image, or by parsing source
+     * with the given options if the image does not match it. Of the options,
+     * only line tracking applies to a configuration loaded from an image.
+     * 
+     * @param source
+     * @param image
+     * @param options
+     * @return StructuredProperties
+     * @throws Error if source cannot be read, or does not parse.
+     */
+    
+    public static StructuredProperties load(File source, File image, StructuredPropertiesOptions options) throws Error {
+        byte[] bytes = read(source);
+        StructuredPropertiesImage loaded = open(image, bytes.length, checksum(bytes));
+        
+        if (loaded == null)
+            return new StructuredProperties(new ByteArrayInputStream(bytes), options);
+        
+        Map<String, Object> root = loaded.new ImageMap(0);
+        
+        return new StructuredProperties(options, root, options.isLineTracking() ? new ImageLines() : null);
+    }
+
+    /* Maps image and checks it was compiled from the source given, or
+     * returns null if it cannot be used.
+     */
+    private static StructuredPropertiesImage open(File image, long sourceLength, int sourceCrc) {
+        if (!image.isFile())
+            return null;
+        
+        try {
+            ByteBuffer in = StructuredProperties.map(image);
+            
+            if (in.capacity() < HEADER_SIZE
+                    || in.getInt(0) != MAGIC
+                    || in.getInt(4) != VERSION
+                    || in.getLong(SOURCE_LENGTH) != sourceLength
+                    || in.getInt(SOURCE_CRC) != sourceCrc
+                    || in.getInt(LENGTH) != in.capacity())
+                return null;
+            
+            /* The sections must follow each other, inside the image. */
+            int last = HEADER_SIZE;
+            
+            for (int section = STRING_OFFSETS; section <= DATA; section += 4) {
+                if (in.getInt(section) < last)
+                    return null;
+                
+                last = in.getInt(section);
+            }
+            
+            if (last > in.capacity() || in.getInt(NODE_COUNT) < 1)
+                return null;
+            
+            return new StructuredPropertiesImage(in);
+        } catch (IOException e) {
+            return null;
+        } catch (Error e) {
+            if (!StructuredProperties.isConfigurationError(e))
+                throw e;
+            
+            return null;
+        }
+    }
+    
+    private static byte[] read(File source) throws Error {
+        try {
+            return StructuredProperties.readFile(source);
+        } catch (IOException e) {
+            throw new Error("Unable to read configuration: " + e.getMessage(), e);
+        }
+    }
+    
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /* Parses the configuration and lays out its image. */
+    static byte[] compile(byte[] source) throws Error {
+        Compiler compiler = new Compiler();
+        
+        new StructuredPropertiesParser(ByteBuffer.wrap(source)).parse(compiler);
+        
+        int stringCount = compiler.strings.size();
+        int stringBytes = 0;
+        
+        for (byte[] s : compiler.strings)
+            stringBytes += s.length;
+        
+        int stringOffsets = HEADER_SIZE;
+        int stringHashes = stringOffsets + (stringCount + 1) * 4;
+        int nodes = stringHashes + stringCount * 4;
+        int tables = nodes + compiler.nodes.size * 4;
+        int entries = tables + compiler.tables.size * 4;
+        int data = entries + compiler.entries.size * 4;
+        int length = data + stringBytes;
+        ByteBuffer out = ByteBuffer.allocate(length);
+        
+        out.putInt(MAGIC).putInt(VERSION).putLong(source.length).putInt(checksum(source));
+        out.putInt(stringCount).putInt(compiler.nodes.size / NODE_INTS);
+        out.putInt(stringOffsets).putInt(stringHashes).putInt(nodes).putInt(tables).putInt(entries).putInt(data);
+        out.putInt(length);
+        
+        int offset = 0;
+        
+        for (byte[] s : compiler.strings) {
+            out.putInt(offset);
+            offset += s.length;
+        }
+        
+        out.putInt(offset);
+        
+        for (int hash : compiler.hashes.toArray())
+            out.putInt(hash);
+        
+        for (IntList section : Arrays.asList(compiler.nodes, compiler.tables, compiler.entries)) {
+            for (int i = 0; i < section.size; i++)
+                out.putInt(section.values[i]);
+        }
+        
+        for (byte[] s : compiler.strings)
+            out.put(s);
+        
+        return out.array();
+    }
+
+    /* Reads field of node. */
+    private int node(int node, int field) {
+        return image.getInt(nodes + (node * NODE_INTS + field) * 4);
+    }
+    
+    private int entry(int entry, int field) {
+        return image.getInt(entries + (entry * ENTRY_INTS + field) * 4);
+    }
+    
+    /* Returns string s as a new String. */
+    private String string(int s) {
+        int start = image.getInt(stringOffsets + s * 4);
+        int end = image.getInt(stringOffsets + s * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer in = image.duplicate();
+        
+        in.position(data + start);
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /* Returns string s as a key; every use of it shares the same String. */
+    private String key(int s) {
+        String key = keys[s];
+        
+        if (key == null)
+            keys[s] = key = string(s);
+        
+        return key;
+    }
+    
+    /* Returns the value of entry, using cache[i] if it has been read before.
+     * Once an entry has been read, reading it again takes no lock, even if
+     * it is an empty block and so null.
+     */
+    private Object value(Object[] cache, int i, int entry) {
+        Object value = cache[i];
+        
+        if (value != null)
+            return value == EMPTY ? null : value;
+        
+        synchronized (cache) {
+            if (cache[i] != null)
+                return cache[i] == EMPTY ? null : cache[i];
+            
+            int ref = entry(entry, 1);
+            
+            if (ref == NULL) {
+                cache[i] = EMPTY;
+                return null;
+            }
+            
+            if (ref < 0)
+                value = string(-ref - 1);
+            else if (node(ref, 0) == MAP)
+                value = new ImageMap(ref);
+            else
+                value = new ImageList(ref);
+            
+            cache[i] = value;
+            return value;
+        }
+    }
+    
+    /**
+     * A map of a loaded image.
+     */
+    final class ImageMap extends AbstractMap<String, Object> {
+        private final int first;
+        private final int count;
+        private final int table;
+        private final int tableSize;
+        private final Object[] cache;
+        private Set<Map.Entry<String, Object>> entrySet     = null;
+        
+        ImageMap(int node) {
+            this.count = node(node, 2);
+            this.first = node(node, 3);
+            this.table = node(node, 4);
+            this.tableSize = node(node, 5);
+            this.cache = new Object[count];
+        }
+        
+        @Override
+        public int size() {
+            return count;
+        }
+        
+        @Override
+        public Object get(Object key) {
+            int i = find(key);
+            
+            return i < 0 ? null : value(cache, i, first + i);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return find(key) >= 0;
+        }
+        
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                    public int size() {
+                        return count;
+                    }
+                    
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        return new Iterator<Map.Entry<String, Object>>() {
+                            private int next                = 0;
+                            
+                            public boolean hasNext() {
+                                return next < count;
+                            }
+                            
+                            public Map.Entry<String, Object> next() {
+                                if (next >= count)
+                                    throw new NoSuchElementException();
+                                
+                                int i = next++;
+                                
+                                return new SimpleImmutableEntry<String, Object>(
+                                        key(entry(first + i, 0)), value(cache, i, first + i));
+                            }
+                            
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+            }
+            
+            return entrySet;
+        }
+        
+        /* Returns the line of the entry for key, or -1. */
+        int line(String key) {
+            int i = find(key);
+            
+            return i < 0 ? -1 : entry(first + i, 2);
+        }
+        
+        /* Returns the index of the entry for key, or -1. */
+        private int find(Object key) {
+            if (!(key instanceof String) || tableSize == 0)
+                return -1;
+            
+            int hash = key.hashCode();
+            int mask = tableSize - 1;
+            
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int i = image.getInt(tables + (table + slot) * 4) - 1;
+                
+                if (i < 0)
+                    return -1;
+                
+                int s = entry(first + i, 0);
+                
+                if (image.getInt(stringHashes + s * 4) == hash && key(s).equals(key))
+                    return i;
+            }
+        }
+    }
+    
+    /**
+     * A list of a loaded image.
+     */
+    final class ImageList extends AbstractList<Object> implements RandomAccess {
+        private final int first;
+        private final int count;
+        private final Object[] cache;
+        
+        ImageList(int node) {
+            this.count = node(node, 2);
+            this.first = node(node, 3);
+            this.cache = new Object[count];
+        }
+        
+        @Override
+        public int size() {
+            return count;
+        }
+        
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            
+            return value(cache, index, first + index);
+        }
+        
+        /* Returns the line of the entry at index, or -1. */
+        int line(int index) {
+            return index < 0 || index >= count ? -1 : entry(first + index, 2);
+        }
+    }
+    
+    /* The lines of the entries of images, which are read from the images
+     * themselves, so nothing is kept for them.
+     */
+    private static final class ImageLines extends StructuredPropertiesLines {
+        @Override
+        int get(Object map, String key) {
+            return map instanceof ImageMap ? ((ImageMap) map).line(key) : -1;
+        }
+        
+        @Override
+        int get(Object list, int index) {
+            return list instanceof ImageList ? ((ImageList) list).line(index) : -1;
+        }
+    }
+    
+    /* A growable array of ints. */
+    private static final class IntList {
+        int[] values                                        = new int[64];
+        int size                                            = 0;
+        
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            
+            values[size++] = value;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+    
+    /* Builds the tables of an image from the events of the parser. */
+    private static final class Compiler implements StructuredPropertiesHandler {
+        final ArrayList<byte[]> strings                     = new ArrayList<byte[]>();
+        final IntList hashes                                = new IntList();
+        final IntList nodes                                 = new IntList();
+        final IntList tables                                = new IntList();
+        final IntList entries                               = new IntList();
+        
+        private final HashMap<String, Integer> stringIndex  = new HashMap<String, Integer>();
+        
+        /* The entries of the open blocks, one after the other, and the
+         * node of each open block and where its entries start.
+         */
+        private final IntList open                          = new IntList();
+        private final IntList openNodes                     = new IntList();
+        private final IntList openStarts                    = new IntList();
+        private int key                                     = -1;
+        
+        public void startMap(int line) {
+            start(MAP, line);
+        }
+        
+        public void startList(int line) {
+            start(LIST, line);
+        }
+        
+        public void key(String key, int line) {
+            this.key = string(key);
+        }
+        
+        public void value(String value, int line) {
+            add(value == null ? NULL : -string(value) - 1, line);
+        }
+        
+        public void endBlock(int line) {
+            int node = openNodes.values[--openNodes.size];
+            int start = openStarts.values[--openStarts.size];
+            int end = open.size;
+            int first = entries.size / ENTRY_INTS;
+            
+            if (nodes.values[node * NODE_INTS] == MAP) {
+                /* Like a StructuredPropertiesMap: the first position, the last value. */
+                HashMap<Integer, Integer> positions = new HashMap<Integer, Integer>();
+                
+                for (int i = start; i < end; i += ENTRY_INTS) {
+                    Integer position = positions.get(open.values[i]);
+                    
+                    if (position == null) {
+                        positions.put(open.values[i], entries.size);
+                        for (int j = 0; j < ENTRY_INTS; j++)
+                            entries.add(open.values[i + j]);
+                    } else {
+                        entries.values[position + 1] = open.values[i + 1];
+                        entries.values[position + 2] = open.values[i + 2];
+                    }
+                }
+                
+                int count = entries.size / ENTRY_INTS - first;
+                int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) * 2;
+                int table = tables.size;
+                
+                for (int i = 0; i < tableSize; i++)
+                    tables.add(0);
+                
+                for (int i = 0; i < count; i++) {
+                    int mask = tableSize - 1;
+                    int slot = hashes.values[entries.values[(first + i) * ENTRY_INTS]] & mask;
+                    
+                    while (tables.values[table + slot] != 0)
+                        slot = (slot + 1) & mask;
+                    
+                    tables.values[table + slot] = i + 1;
+                }
+                
+                nodes.values[node * NODE_INTS + 2] = count;
+                nodes.values[node * NODE_INTS + 4] = table;
+                nodes.values[node * NODE_INTS + 5] = tableSize;
+            } else {
+                for (int i = start; i < end; i++)
+                    entries.add(open.values[i]);
+                
+                nodes.values[node * NODE_INTS + 2] = (end - start) / ENTRY_INTS;
+            }
+            
+            nodes.values[node * NODE_INTS + 3] = first;
+            open.size = start;
+        }
+        
+        private void start(int kind, int line) {
+            int node = nodes.size / NODE_INTS;
+            
+            nodes.add(kind);
+            nodes.add(line);
+            for (int i = 2; i < NODE_INTS; i++)
+                nodes.add(0);
+            
+            if (openNodes.size > 0)
+                add(node, line);
+            
+            openNodes.add(node);
+            openStarts.add(open.size);
+        }
+        
+        private void add(int value, int line) {
+            open.add(key);
+            open.add(value);
+            open.add(line);
+            key = -1;
+        }
+        
+        private int string(String s) {
+            Integer index = stringIndex.get(s);
+            
+            if (index == null) {
+                index = strings.size();
+                stringIndex.put(s, index);
+                strings.add(s.getBytes(StandardCharsets.UTF_8));
+                hashes.add(s.hashCode());
+            }
+            
+            return index;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/* File: StructuredPropertiesIncludeCache.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files included by @include directives, each parsed once and shared
+ * by every configuration that includes it.
+ * <p>
+ * A file is parsed the first time it is included, as a frozen
+ * configuration, so what it holds can be shared safely. Later includes of
+ * the same file get the same tree, as long as the file, and any file it
+ * includes in turn, has the same modification time and size as when it
+ * was parsed; otherwise it is parsed again. Loading many configurations
+ * that include one large base file therefore parses the base only once.
+ * <p>
+ * Includes are only followed for configurations given a cache with
+ * StructuredPropertiesOptions.setIncludeCache(), and those given the same
+ * cache share what it holds. It keeps every file it has parsed until
+ * clear() is called, or it is no longer used.
+ * 
+ * @see StructuredPropertiesOptions#setIncludeCache(StructuredPropertiesIncludeCache)
+ */
+public class StructuredPropertiesIncludeCache {
+    /* The files being parsed by this thread, innermost last. */
+    private static final ThreadLocal<List<Loading>> loading = new ThreadLocal<List<Loading>>() {
+        @Override
+        protected List<Loading> initialValue() {
+            return new ArrayList<Loading>();
+        }
+    };
+    
+    private final ConcurrentHashMap<File, Entry> entries    = new ConcurrentHashMap<File, Entry>();
+    
+    /* A file, and the last tree parsed from it. Other threads may check
+     * an entry while it is being parsed again, so a parse is only
+     * published once it is done, in one piece.
+     */
+    private static final class Entry {
+        final File file;
+        volatile Parsed parsed                              = null;
+        
+        Entry(File file) {
+            this.file = file;
+        }
+        
+        boolean isCurrent() {
+            Parsed p = parsed;
+            
+            if (p == null || file.lastModified() != p.modified || file.length() != p.length)
+                return false;
+            
+            for (Entry include : p.includes) {
+                if (!include.isCurrent())
+                    return false;
+            }
+            
+            return true;
+        }
+    }
+    
+    /* The tree parsed from a file, what the file was like when it was
+     * parsed, and the files it included.
+     */
+    private static final class Parsed {
+        final long modified;
+        final long length;
+        final Map<String, Object> root;
+        final List<Entry> includes;
+        
+        Parsed(long modified, long length, Map<String, Object> root, List<Entry> includes) {
+            this.modified = modified;
+            this.length = length;
+            this.root = root;
+            this.includes = includes;
+        }
+    }
+    
+    /* A file being parsed, and the files it has included so far. */
+    private static final class Loading {
+        final Entry entry;
+        final List<Entry> includes                          = new ArrayList<Entry>();
+        
+        Loading(Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Returns the root of the configuration in file, parsing it unless it is
+     * already cached and has not changed since. The root is frozen.
+     * 
+     * @param file
+     * @return Map
+     * @throws Error if the file cannot be read or does not parse, or
+     *         includes itself.
+     */
+    
+    public Map<String, Object> get(File file) throws Error {
+        File key;
+        
+        try {
+            key = file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new Error("Unable to read configuration: " + e.getMessage(), e);
+        }
+        
+        Entry entry = entries.get(key);
+        
+        if (entry == null) {
+            Entry created = new Entry(key);
+            
+            entry = entries.putIfAbsent(key, created);
+            
+            if (entry == null)
+                entry = created;
+        }
+        
+        List<Loading> stack = loading.get();
+        
+        for (Loading l : stack) {
+            if (l.entry == entry)
+                throw new Error("Configuration error: " + file + " includes itself.");
+        }
+        
+        /* Whatever is being parsed depends on this file now. */
+        if (!stack.isEmpty())
+            stack.get(stack.size() - 1).includes.add(entry);
+        
+        /* No lock is held while parsing, as the file may include one that
+         * another thread is parsing, which includes this one. Threads that
+         * find the same file changed at once each parse it, and the last
+         * to finish is kept.
+         */
+        Parsed parsed = entry.parsed;
+        
+        if (!entry.isCurrent())
+            parsed = load(entry);
+        
+        return parsed.root;
+    }
+    
+    private Parsed load(Entry entry) throws Error {
+        if (!entry.file.isFile())
+            throw new Error("Unable to read configuration: " + entry.file + " does not exist.");
+        
+        StructuredPropertiesOptions options = new StructuredPropertiesOptions();
+        List<Loading> stack = loading.get();
+        Loading l = new Loading(entry);
+        long modified = entry.file.lastModified();
+        long length = entry.file.length();
+        
+        options.setFrozen(true);
+        options.setLexer(StructuredPropertiesOptions.Lexer.UTF8);
+        options.setLineTracking(false);
+        options.setIncludeCache(this);
+        
+        stack.add(l);
+        
+        try {
+            Map<String, Object> root = new StructuredProperties(entry.file, options).getTree();
+            Parsed parsed = new Parsed(modified, length, root, l.includes);
+            
+            entry.parsed = parsed;
+            return parsed;
+        } finally {
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the number of files in the cache.
+     * 
+     * @return int
+     */
+    
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets every file in the cache, so each is parsed again the next
+     * time it is included.
+     */
+    
+    public void clear() {
+        entries.clear();
+    }
+}
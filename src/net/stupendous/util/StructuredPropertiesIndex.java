@@ -0,0 +1,412 @@
+/* File: StructuredPropertiesIndex.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A flat index of every entry in a configuration by its full path, so that
+ * a deep lookup is a single probe of one hash table rather than a walk from
+ * map to map.
+ * <p>
+ * Paths are keys separated by '.', as for getProperty(String, String), and
+ * an entry of a list is reached by its position in it:
+ * <pre>
+ * StructuredPropertiesIndex index = new StructuredPropertiesIndex(c.getTree());
+ * Object ip = index.get("options.server.ip-address");
+ * Object first = index.get("options.servers.0");
+ * </pre>
+ * The paths are also kept in sorted order, so everything below a path can
+ * be read as one range of the index:
+ * <pre>
+ * for (Map.Entry&lt;String, Object&gt; e : index.below("options.server").entrySet())
+ *     System.out.println(e.getKey() + " = " + e.getValue());
+ * </pre>
+ * Blocks are indexed as well as strings, so get() returns the same Map or
+ * List that getProperty() would. A key that contains '.' cannot be told
+ * apart from a path, so it is left out of the index, along with anything
+ * below it; read it with getProperty(String...) instead. The entries of a
+ * top-level key "" have paths that start with '.', as getProperty() splits
+ * them. getProperty() never reads through a list, so it does not use the
+ * index for the entries below one, which only get() and below() return.
+ * <p>
+ * The index is a snapshot of the tree it was built from. That is all a
+ * frozen configuration will ever hold, but if you change the HashMaps of a
+ * configuration that is not frozen, build the index again. Building it
+ * reads the whole tree, so for a lazy configuration it builds every block.
+ * Once built, the index never changes, and may be shared between threads.
+ * 
+ * @see StructuredPropertiesOptions#setIndexed(boolean)
+ */
+public final class StructuredPropertiesIndex {
+    private final String[] paths;
+    private final Object[] values;
+    
+    /* Whether each entry is below a list, where getProperty() never looks. */
+    private final boolean[] listed;
+    
+    /* Index + 1 of the path for each slot, or 0 when the slot is empty. */
+    private final int[] table;
+    
+    /* What find() returns for parts that cannot be in the index. */
+    static final int UNINDEXED                              = -2;
+
+    /**
+     * Indexes every entry below root.
+     * 
+     * @param root
+     */
+    
+    public StructuredPropertiesIndex(Map<?, ?> root) {
+        List<Object> entries = new ArrayList<Object>();
+        
+        if (root != null)
+            add(root, entries);
+        
+        int n = entries.size() / 3;
+        Integer[] order = new Integer[n];
+        
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        
+        final List<Object> e = entries;
+        
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return ((String) e.get(a * 3)).compareTo((String) e.get(b * 3));
+            }
+        });
+        
+        paths = new String[n];
+        values = new Object[n];
+        listed = new boolean[n];
+        
+        for (int i = 0; i < n; i++) {
+            paths[i] = (String) entries.get(order[i] * 3);
+            values[i] = entries.get(order[i] * 3 + 1);
+            listed[i] = (Boolean) entries.get(order[i] * 3 + 2);
+        }
+        
+        table = new int[tableSize(n)];
+        
+        for (int i = 0; i < n; i++)
+            table[slot(paths[i])] = i + 1;
+    }
+    
+    /* Adds the path, value and whether it is below a list of everything
+     * below root to entries. The blocks still to be walked are kept on a
+     * stack, after their paths and whether they are below a list, so a
+     * configuration of any depth can be indexed. The root has no path, so
+     * that its entries have no prefix, while an entry below the key "" has
+     * the prefix ".".
+     */
+    private static void add(Map<?, ?> root, List<Object> entries) {
+        ArrayList<Object> stack = new ArrayList<Object>();
+        StringBuilder path = new StringBuilder();
+        
+        stack.add(null);
+        stack.add(Boolean.FALSE);
+        stack.add(root);
+        
+        while (!stack.isEmpty()) {
+            Object block = stack.remove(stack.size() - 1);
+            Boolean listed = (Boolean) stack.remove(stack.size() - 1);
+            String prefix = (String) stack.remove(stack.size() - 1);
+            
+            if (block instanceof Map<?, ?>) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) block).entrySet()) {
+                    String key = (String) entry.getKey();
+                    
+                    if (key.indexOf('.') < 0)
+                        add(path, prefix, key, entry.getValue(), listed, entries, stack);
+                }
+            } else {
+                List<?> list = (List<?>) block;
+                
+                for (int i = 0; i < list.size(); i++)
+                    add(path, prefix, Integer.toString(i), list.get(i), Boolean.TRUE, entries, stack);
+            }
+        }
+    }
+    
+    private static void add(StringBuilder path, String prefix, String key, Object value, Boolean listed,
+            List<Object> entries, List<Object> stack) {
+        path.setLength(0);
+        
+        if (prefix != null)
+            path.append(prefix).append('.');
+        
+        path.append(key);
+        
+        String p = path.toString();
+        
+        entries.add(p);
+        entries.add(value);
+        entries.add(listed);
+        
+        if (value instanceof Map<?, ?> || value instanceof List<?>) {
+            stack.add(p);
+            stack.add(listed);
+            stack.add(value);
+        }
+    }
+    
+    private static int tableSize(int entries) {
+        int size = 1;
+        
+        /* Keep the table at most half full. */
+        while (size < entries * 2)
+            size <<= 1;
+        
+        return size;
+    }
+    
+    /* Finds the slot holding path, or the empty slot where it belongs. */
+    private int slot(String path) {
+        int mask = table.length - 1;
+        int h = path.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        
+        while (table[slot] != 0) {
+            String p = paths[table[slot] - 1];
+            
+            if (p.hashCode() == h && p.equals(path))
+                return slot;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+    
+    /**
+     * Returns the number of entries in the index.
+     * 
+     * @return int
+     */
+    
+    public int size() {
+        return paths.length;
+    }
+    
+    /**
+     * Returns whether there is an entry at path, even one whose value is
+     * null because it was an empty block.
+     * 
+     * @param path
+     * @return boolean
+     */
+    
+    public boolean contains(String path) {
+        return path != null && table[slot(path)] != 0;
+    }
+    
+    /**
+     * Returns the entry at path, or null if there is no such entry.
+     * 
+     * @param path
+     * @return Map, List, String
+     */
+    
+    public Object get(String path) {
+        if (path == null)
+            return null;
+        
+        int i = table[slot(path)] - 1;
+        
+        return i < 0 ? null : values[i];
+    }
+    
+    /**
+     * Finds the entry at the path made of parts joined by '.', without
+     * joining them. The hash of the path is worked out a part at a time, and
+     * each path with the same hash is compared with the parts where they
+     * are. Returns the position of the entry, -1 if there is none, or
+     * UNINDEXED if a part has a '.' in it.
+     */
+    
+    int find(String[] parts) {
+        int h = 0;
+        int length = parts.length - 1;
+        
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            
+            if (i > 0)
+                h = 31 * h + '.';
+            
+            for (int j = 0; j < part.length(); j++) {
+                char c = part.charAt(j);
+                
+                if (c == '.')
+                    return UNINDEXED;
+                
+                h = 31 * h + c;
+            }
+            
+            length += part.length();
+        }
+        
+        int mask = table.length - 1;
+        
+        for (int slot = (h ^ (h >>> 16)) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            String p = paths[table[slot] - 1];
+            
+            if (p.hashCode() == h && p.length() == length && matches(p, parts))
+                return table[slot] - 1;
+        }
+        
+        return -1;
+    }
+    
+    /* Whether path is the parts joined by '.', given it is the right length. */
+    private static boolean matches(String path, String[] parts) {
+        int offset = 0;
+        
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0 && path.charAt(offset++) != '.')
+                return false;
+            
+            if (!path.regionMatches(offset, parts[i], 0, parts[i].length()))
+                return false;
+            
+            offset += parts[i].length();
+        }
+        
+        return true;
+    }
+    
+    /* The value of the entry at position i, as found by find(). */
+    Object value(int i) {
+        return values[i];
+    }
+    
+    /* The value of the entry at path, or null if there is none or it is
+     * below a list, as getProperty() would find it by walking the maps.
+     */
+    Object property(String path) {
+        int i = table[slot(path)] - 1;
+        
+        return i < 0 || listed[i] ? null : values[i];
+    }
+    
+    /* Whether the entry at position i is below a list. */
+    boolean isListed(int i) {
+        return listed[i];
+    }
+    
+    /**
+     * Returns every entry below path, at any depth, by its full path and in
+     * the order of their paths. The Map is a view of a range of the index,
+     * so making it costs two binary searches. An empty path gives every
+     * entry in the index.
+     * 
+     * @param path
+     * @return Map
+     */
+    
+    public Map<String, Object> below(String path) {
+        if (path.length() == 0)
+            return new Range(0, paths.length);
+        
+        /* Every path that starts with "path." sorts between "path." and "path/". */
+        return new Range(search(path + '.'), search(path + '/'));
+    }
+    
+    /* Returns the position of the first path that is not less than path. */
+    private int search(String path) {
+        int i = Arrays.binarySearch(paths, path);
+        
+        return i < 0 ? -i - 1 : i;
+    }
+    
+    /* The entries from start to end - 1, as a Map. */
+    private final class Range extends AbstractMap<String, Object> {
+        private final int start;
+        private final int end;
+        
+        Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public int size() {
+            return end - start;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            int i = key instanceof String ? table[slot((String) key)] - 1 : -1;
+            
+            return i >= start && i < end;
+        }
+        
+        @Override
+        public Object get(Object key) {
+            int i = key instanceof String ? table[slot((String) key)] - 1 : -1;
+            
+            return i >= start && i < end ? values[i] : null;
+        }
+        
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int next = start;
+                        
+                        public boolean hasNext() {
+                            return next < end;
+                        }
+                        
+                        public Map.Entry<String, Object> next() {
+                            if (next >= end)
+                                throw new NoSuchElementException();
+                            
+                            Map.Entry<String, Object> entry = 
+                                new SimpleImmutableEntry<String, Object>(paths[next], values[next]);
+                            
+                            next++;
+                            return entry;
+                        }
+                        
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return end - start;
+                }
+            };
+        }
+    }
+}
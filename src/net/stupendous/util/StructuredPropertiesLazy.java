@@ -0,0 +1,462 @@
+/* File: StructuredPropertiesLazy.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+/**
+ * Builds a lazy configuration, whose blocks are only parsed when they are
+ * first used.
+ * <p>
+ * The whole configuration is parsed once when it is loaded, by the usual
+ * StructuredPropertiesParser, so any error in it is found straight away.
+ * But only the entries of the root are decoded and built. Every block in
+ * the root is left as a stub that knows where the block is in the bytes of
+ * the configuration, and the symbols inside it are found without being
+ * decoded. When a stub is first used, its block is parsed again the same
+ * way: its own entries are built and the blocks inside them become stubs
+ * in turn.
+ * <p>
+ * A stub costs a few fields, so the parts of a large configuration that
+ * are never read cost almost nothing, at the price of lexing each block
+ * once more for each block it is nested in. A lazy configuration is
+ * immutable, like a frozen one, and keeps the bytes it was read from.
+ * 
+ * @see StructuredPropertiesOptions#setLazy(boolean)
+ */
+final class StructuredPropertiesLazy {
+    /* Symbols that are never looked at closely enough to need their own. */
+    private static final StructuredPropertiesSymbol SKIPPED_STRING
+                                                            = new StructuredPropertiesSymbol(Type.STRING, null, 0);
+    private static final StructuredPropertiesSymbol SKIPPED_BLOCK_START
+                                                            = new StructuredPropertiesSymbol(Type.BLOCK_START, "{", 0);
+    private static final StructuredPropertiesSymbol SKIPPED_BLOCK_END
+                                                            = new StructuredPropertiesSymbol(Type.BLOCK_END, "}", 0);
+    private static final StructuredPropertiesSymbol SKIPPED_EQUALS
+                                                            = new StructuredPropertiesSymbol(Type.EQUALS, "=", 0);
+    
+    private final ByteBuffer buffer;
+    private final StructuredPropertiesSymbolTable symbols;
+    private final StructuredPropertiesLines lines;
+    private int symbolCount                                 = 0;
+    private int maxDepth                                    = 0;
+    
+    /**
+     * Prepares to read a configuration from the bytes between the position
+     * and the limit of the buffer, which must not change afterwards.
+     */
+    
+    StructuredPropertiesLazy(ByteBuffer in, StructuredPropertiesSymbolTable symbols, boolean lineTracking) {
+        this.buffer = in;
+        this.symbols = symbols;
+        this.lines = lineTracking ? new SharedLines() : null;
+    }
+    
+    /**
+     * Parses the configuration and builds its root.
+     * 
+     * @throws Error if the configuration does not parse, or has an
+     *         @include, which is left to a parse of the whole configuration.
+     *         The message may lack details that were not decoded, so the
+     *         caller should parse the configuration as usual.
+     */
+    
+    @SuppressWarnings("unchecked")
+    Map<String, Object> root() throws Error {
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(buffer);
+        
+        lexer.setSymbolTable(symbols);
+        lexer.setIncludes(true);
+        
+        return (Map<String, Object>) build(lexer, 0, null);
+    }
+    
+    /**
+     * Returns the line numbers of the entries built so far, or null if line
+     * tracking is off. Blocks add theirs as they are built.
+     */
+    
+    StructuredPropertiesLines getLines() {
+        return lines;
+    }
+    
+    /**
+     * Returns the number of symbols in the configuration, once root() has
+     * built the root.
+     */
+    
+    int getSymbolCount() {
+        return symbolCount;
+    }
+    
+    /**
+     * Returns how deeply the blocks of the configuration are nested, once
+     * root() has built the root.
+     */
+    
+    int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    /* Builds the block at level: 0 for the root, or 1 for the block of
+     * stub, in which case the lexer must start at its opening brace.
+     */
+    private Object build(StructuredPropertiesByteLexer lexer, int level, Stub stub) throws Error {
+        Scanner scanner = new Scanner(lexer, level);
+        Builder builder = new Builder(level, stub);
+        
+        StructuredPropertiesParser parser = new StructuredPropertiesParser(scanner);
+        
+        parser.parse(builder);
+        
+        /* The root is parsed right through, so it sees every symbol. */
+        if (level == 0) {
+            symbolCount = parser.getSymbolCount();
+            maxDepth = parser.getMaxDepth();
+        }
+        
+        /* The stubs and the blocks the scanner found are in the same order. */
+        for (int i = 0; i < builder.stubs.size(); i++)
+            builder.stubs.get(i).setRange(scanner.blocks.get(i * 2), scanner.blocks.get(i * 2 + 1));
+        
+        return builder.block;
+    }
+    
+    /* Parses the block of a stub. */
+    private Object build(Stub stub, int start, int end, int line) {
+        ByteBuffer in = buffer.duplicate();
+        
+        in.limit(end);
+        in.position(start);
+        
+        StructuredPropertiesByteLexer lexer = new StructuredPropertiesByteLexer(in);
+        
+        lexer.setLine(line);
+        lexer.setSymbolTable(symbols);
+        return build(lexer, 1, stub);
+    }
+    
+    /* Passes the symbols of the lexer to the parser, but only decodes those
+     * of the block being built. It also records where each block inside it
+     * starts and ends. For a block, the parser is first given a key for it,
+     * as if the block were the value of the only entry of a root.
+     */
+    private static final class Scanner implements StructuredPropertiesScanner {
+        private final StructuredPropertiesByteLexer lexer;
+        private final int level;
+        private int depth                                   = 0;
+        private boolean keyGiven                            = false;
+        private boolean emptyBlock                          = false;
+        
+        /* The start and end of each block inside the one being built. */
+        final List<Integer> blocks                          = new ArrayList<Integer>();
+        
+        Scanner(StructuredPropertiesByteLexer lexer, int level) {
+            this.lexer = lexer;
+            this.level = level;
+            this.keyGiven = level == 0;
+        }
+        
+        public StructuredPropertiesSymbol scan() {
+            if (!keyGiven) {
+                keyGiven = true;
+                return new StructuredPropertiesSymbol(Type.STRING, "", lexer.getLine());
+            }
+            
+            boolean afterStart = emptyBlock;
+            
+            emptyBlock = false;
+            
+            switch (lexer.next()) {
+            case STRING:
+                if (depth > level)
+                    return SKIPPED_STRING;
+                
+                return new StructuredPropertiesSymbol(Type.STRING, lexer.value(), lexer.getTokenLine());
+            case BLOCK_START:
+                depth++;
+                
+                if (depth > level + 1)
+                    return SKIPPED_BLOCK_START;
+                
+                if (depth == level + 1) {
+                    blocks.add(lexer.getTokenStart());
+                    blocks.add(-1);
+                    emptyBlock = true;
+                }
+                
+                return new StructuredPropertiesSymbol(Type.BLOCK_START, "{", lexer.getTokenLine());
+            case BLOCK_END:
+                if (depth == level + 1) {
+                    /* An empty block is a null value, not a block. */
+                    if (afterStart) {
+                        blocks.remove(blocks.size() - 1);
+                        blocks.remove(blocks.size() - 1);
+                    } else {
+                        blocks.set(blocks.size() - 1, lexer.getPosition());
+                    }
+                }
+                
+                depth--;
+                return SKIPPED_BLOCK_END;
+            case EQUALS:
+                return SKIPPED_EQUALS;
+            case INCLUDE:
+                /* The builder does not take includes, so this gives up. */
+                return new StructuredPropertiesSymbol(Type.INCLUDE, "@include", lexer.getTokenLine());
+            default:
+                return null;
+            }
+        }
+    }
+    
+    /* Builds the block at level from the events of the parser, and a stub
+     * for every block inside it. The lines of its entries are kept against
+     * the stub, as that is the block the tree holds, or for the root, the
+     * block itself.
+     */
+    private final class Builder implements StructuredPropertiesHandler {
+        private final int level;
+        private final Stub stub;
+        private int depth                                   = -1;
+        private boolean isMap                               = false;
+        private Object[] entries                            = new Object[16];
+        private int[] entryLines                            = new int[16];
+        private int count                                   = 0;
+        
+        Object block                                        = null;
+        final List<Stub> stubs                              = new ArrayList<Stub>();
+        
+        Builder(int level, Stub stub) {
+            this.level = level;
+            this.stub = stub;
+        }
+        
+        public void startMap(int line) {
+            start(true, line);
+        }
+        
+        public void startList(int line) {
+            start(false, line);
+        }
+        
+        public void key(String key, int line) {
+            if (depth == level)
+                add(key, line);
+        }
+        
+        public void value(String value, int line) {
+            if (depth == level)
+                add(value, line);
+        }
+        
+        public void endBlock(int line) {
+            if (depth == level) {
+                if (isMap)
+                    block = new StructuredPropertiesMap(entries, 0, count);
+                else
+                    block = new StructuredPropertiesList(entries, 0, count);
+                
+                if (lines != null)
+                    track(stub == null ? block : stub);
+            }
+            
+            depth--;
+        }
+        
+        private void start(boolean isMap, int line) {
+            depth++;
+            
+            if (depth == level) {
+                this.isMap = isMap;
+            } else if (depth == level + 1) {
+                Stub inner = isMap ? new LazyMap(line) : new LazyList(line);
+                
+                stubs.add(inner);
+                add(inner, line);
+            }
+        }
+        
+        private void track(Object owner) {
+            if (isMap) {
+                for (int i = 0; i < count; i += 2)
+                    lines.put(owner, (String) entries[i], entryLines[i + 1]);
+            } else {
+                for (int i = 0; i < count; i++)
+                    lines.put(owner, i, entryLines[i]);
+            }
+        }
+        
+        private void add(Object entry, int line) {
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+                entryLines = Arrays.copyOf(entryLines, count * 2);
+            }
+            
+            entryLines[count] = line;
+            entries[count++] = entry;
+        }
+    }
+    
+    /* Blocks are built, and add their lines, while other threads read them.
+     * A block that has not been built yet is built before its lines are
+     * looked up.
+     */
+    private static final class SharedLines extends StructuredPropertiesLines {
+        @Override
+        synchronized void put(Object map, String key, int line) {
+            super.put(map, key, line);
+        }
+        
+        @Override
+        synchronized void put(Object list, int index, int line) {
+            super.put(list, index, line);
+        }
+        
+        @Override
+        int get(Object map, String key) {
+            if (map instanceof LazyMap)
+                ((LazyMap) map).map();
+            
+            synchronized (this) {
+                return super.get(map, key);
+            }
+        }
+        
+        @Override
+        int get(Object list, int index) {
+            if (list instanceof LazyList)
+                ((LazyList) list).list();
+            
+            synchronized (this) {
+                return super.get(list, index);
+            }
+        }
+    }
+    
+    /* A block that has not been built yet, and builds itself when used. */
+    private interface Stub {
+        void setRange(int start, int end);
+    }
+    
+    /**
+     * A map of a lazy configuration.
+     */
+    final class LazyMap extends AbstractMap<String, Object> implements Stub {
+        private final int line;
+        private int start                                   = 0;
+        private int end                                     = 0;
+        private volatile Map<String, Object> map            = null;
+        
+        LazyMap(int line) {
+            this.line = line;
+        }
+        
+        public void setRange(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> map() {
+            Map<String, Object> m = map;
+            
+            if (m == null) {
+                synchronized (this) {
+                    if ((m = map) == null)
+                        map = m = (Map<String, Object>) build(this, start, end, line);
+                }
+            }
+            
+            return m;
+        }
+        
+        @Override
+        public int size() {
+            return map().size();
+        }
+        
+        @Override
+        public Object get(Object key) {
+            return map().get(key);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return map().containsKey(key);
+        }
+        
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return map().entrySet();
+        }
+    }
+    
+    /**
+     * A list of a lazy configuration.
+     */
+    final class LazyList extends AbstractList<Object> implements RandomAccess, Stub {
+        private final int line;
+        private int start                                   = 0;
+        private int end                                     = 0;
+        private volatile List<Object> list                  = null;
+        
+        LazyList(int line) {
+            this.line = line;
+        }
+        
+        public void setRange(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private List<Object> list() {
+            List<Object> l = list;
+            
+            if (l == null) {
+                synchronized (this) {
+                    if ((l = list) == null)
+                        list = l = (List<Object>) build(this, start, end, line);
+                }
+            }
+            
+            return l;
+        }
+        
+        @Override
+        public int size() {
+            return list().size();
+        }
+        
+        @Override
+        public Object get(int index) {
+            return list().get(index);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/* File: StructuredPropertiesLines.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.Map;
+
+/**
+ * The line each entry of a configuration came from, keyed by where the
+ * entry is: the block it is in, and its key or its index in that block.
+ * <p>
+ * The values themselves cannot be the keys. IDs are shared through the
+ * symbol table, so the same String is the value of every entry that has
+ * the same ID, and each would take the line of the last one parsed. Blocks
+ * are never shared, so a block and a key always name one entry. A block
+ * has the line of the entry it is the value of; the root is on line 1.
+ * <p>
+ * The table is a single open addressed hash table of blocks, keys and
+ * lines held in arrays, so an entry costs no objects of its own. It is not
+ * safe to add to while other threads read it.
+ */
+class StructuredPropertiesLines {
+    private Object[] blocks                                 = new Object[64];
+    private String[] keys                                   = new String[64];
+    private int[] indexes                                   = new int[64];
+    private int[] lines                                     = new int[64];
+    private int size                                        = 0;
+    
+    /**
+     * Returns the number of entries in the table.
+     */
+    
+    int size() {
+        return size;
+    }
+
+    /**
+     * Records the line of the entry for key in map.
+     */
+    
+    void put(Object map, String key, int line) {
+        put(map, key, 0, line);
+    }
+
+    /**
+     * Records the line of the entry at index in list.
+     */
+    
+    void put(Object list, int index, int line) {
+        put(list, null, index, line);
+    }
+
+    /**
+     * Returns the line of the entry for key in map, or -1 if it is not
+     * known.
+     */
+    
+    int get(Object map, String key) {
+        return get(map, key, 0);
+    }
+
+    /**
+     * Returns the line of the entry at index in list, or -1 if it is not
+     * known.
+     */
+    
+    int get(Object list, int index) {
+        return get(list, null, index);
+    }
+
+    /**
+     * Adds every entry of other to this table.
+     */
+    
+    void putAll(StructuredPropertiesLines other) {
+        for (int i = 0; i < other.blocks.length; i++) {
+            if (other.blocks[i] != null)
+                put(other.blocks[i], other.keys[i], other.indexes[i], other.lines[i]);
+        }
+    }
+
+    /**
+     * Adds the entries of other that are in one of the given blocks, moved
+     * down by the number of lines the block maps to.
+     */
+    
+    void putMoved(StructuredPropertiesLines other, Map<Object, Integer> deltas) {
+        for (int i = 0; i < other.blocks.length; i++) {
+            if (other.blocks[i] == null)
+                continue;
+            
+            Integer delta = deltas.get(other.blocks[i]);
+            
+            if (delta != null)
+                put(other.blocks[i], other.keys[i], other.indexes[i], other.lines[i] + delta);
+        }
+    }
+
+    private void put(Object block, String key, int index, int line) {
+        if (size * 2 >= blocks.length)
+            grow();
+        
+        int slot = slot(block, key, index);
+        
+        if (blocks[slot] == null) {
+            blocks[slot] = block;
+            keys[slot] = key;
+            indexes[slot] = index;
+            size++;
+        }
+        
+        lines[slot] = line;
+    }
+
+    private int get(Object block, String key, int index) {
+        if (block == null)
+            return -1;
+        
+        int slot = slot(block, key, index);
+        
+        return blocks[slot] == null ? -1 : lines[slot];
+    }
+
+    /* Finds the slot holding the entry, or the empty slot where it belongs. */
+    private int slot(Object block, String key, int index) {
+        int mask = blocks.length - 1;
+        int slot = hash(block, key, index) & mask;
+        
+        while (blocks[slot] != null) {
+            if (blocks[slot] == block && indexes[slot] == index
+                    && (keys[slot] == key || key != null && key.equals(keys[slot])))
+                return slot;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+
+    private static int hash(Object block, String key, int index) {
+        int h = System.identityHashCode(block) * 31 + (key == null ? index : key.hashCode());
+        
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+
+    private void grow() {
+        Object[] oldBlocks = blocks;
+        String[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        int[] oldLines = lines;
+        
+        blocks = new Object[oldBlocks.length * 2];
+        keys = new String[blocks.length];
+        indexes = new int[blocks.length];
+        lines = new int[blocks.length];
+        
+        int mask = blocks.length - 1;
+        
+        for (int i = 0; i < oldBlocks.length; i++) {
+            if (oldBlocks[i] == null)
+                continue;
+            
+            int slot = hash(oldBlocks[i], oldKeys[i], oldIndexes[i]) & mask;
+            
+            while (blocks[slot] != null)
+                slot = (slot + 1) & mask;
+            
+            blocks[slot] = oldBlocks[i];
+            keys[slot] = oldKeys[i];
+            indexes[slot] = oldIndexes[i];
+            lines[slot] = oldLines[i];
+        }
+    }
+}
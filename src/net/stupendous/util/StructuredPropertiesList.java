@@ -0,0 +1,62 @@
+/* File: StructuredPropertiesList.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A compact, immutable List used for the blocks of a frozen configuration.
+ * <p>
+ * The entries are held in an array of exactly the size of the list. Any
+ * attempt to modify the list throws UnsupportedOperationException.
+ * 
+ * @see StructuredPropertiesOptions#setFrozen(boolean)
+ */
+public final class StructuredPropertiesList extends AbstractList<Object> implements RandomAccess {
+    private final Object[] values;
+
+    /**
+     * Creates a list from entries[start] to entries[end - 1].
+     */
+    
+    StructuredPropertiesList(Object[] entries, int start, int end) {
+        this.values = Arrays.copyOfRange(entries, start, end);
+    }
+
+    @Override
+    public Object get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Returns the hash List.hashCode() defines, worked out without
+     * recursing, so that a list nested to any depth can be hashed.
+     */
+    
+    @Override
+    public int hashCode() {
+        return StructuredPropertiesMap.hash(this);
+    }
+}
@@ -0,0 +1,253 @@
+/* File: StructuredPropertiesMap.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, immutable Map used for the blocks of a frozen configuration.
+ * <p>
+ * Keys and values are held in two arrays of exactly the number of entries,
+ * in the order the keys first appear in the file, with a small open
+ * addressed table of indexes into them for lookups. There are no per-entry
+ * objects, so a map costs a fraction of the equivalent java.util.HashMap.
+ * <p>
+ * Any attempt to modify the map throws UnsupportedOperationException.
+ * 
+ * @see StructuredPropertiesOptions#setFrozen(boolean)
+ */
+public final class StructuredPropertiesMap extends AbstractMap<String, Object> {
+    private final String[] keys;
+    private final Object[] values;
+    
+    /* Index + 1 of the entry for each slot, or 0 when the slot is empty. */
+    private final int[] table;
+    
+    private Set<Map.Entry<String, Object>> entrySet         = null;
+
+    /**
+     * Creates a map from alternating keys and values in entries[start] to
+     * entries[end - 1]. As in the parser, a later entry for the same key
+     * replaces the value of an earlier one.
+     */
+    
+    StructuredPropertiesMap(Object[] entries, int start, int end) {
+        int n = (end - start) / 2;
+        String[] keys = new String[n];
+        Object[] values = new Object[n];
+        int size = 0;
+        
+        table = new int[tableSize(n)];
+        
+        for (int i = start; i < end; i += 2) {
+            String key = (String) entries[i];
+            int slot = slot(key, keys);
+            
+            if (table[slot] == 0) {
+                keys[size] = key;
+                values[size] = entries[i + 1];
+                table[slot] = ++size;
+            } else {
+                values[table[slot] - 1] = entries[i + 1];
+            }
+        }
+        
+        if (size < n) {
+            keys = Arrays.copyOf(keys, size);
+            values = Arrays.copyOf(values, size);
+        }
+        
+        this.keys = keys;
+        this.values = values;
+    }
+    
+    private static int tableSize(int entries) {
+        int size = 1;
+        
+        /* Keep the table at most half full. */
+        while (size < entries * 2)
+            size <<= 1;
+        
+        return size;
+    }
+    
+    /* Finds the slot holding key, or the empty slot where it belongs. */
+    private int slot(Object key, String[] keys) {
+        int mask = table.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        
+        while (table[slot] != 0) {
+            String k = keys[table[slot] - 1];
+            
+            if (k.hashCode() == h && k.equals(key))
+                return slot;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+    
+    private int indexOf(Object key) {
+        if (key == null || keys.length == 0)
+            return -1;
+        
+        return table[slot(key, keys)] - 1;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int next = 0;
+                        
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+                        
+                        public Map.Entry<String, Object> next() {
+                            if (next >= keys.length)
+                                throw new NoSuchElementException();
+                            
+                            Map.Entry<String, Object> entry = 
+                                new SimpleImmutableEntry<String, Object>(keys[next], values[next]);
+                            
+                            next++;
+                            return entry;
+                        }
+                        
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+        
+        return entrySet;
+    }
+
+    /**
+     * Returns the hash Map.hashCode() defines, worked out without
+     * recursing, so that a map nested to any depth can be hashed.
+     */
+    
+    @Override
+    public int hashCode() {
+        return hash(this);
+    }
+    
+    /* The hash of value as Map.hashCode() and List.hashCode() define it.
+     * The frozen blocks inside it are walked with a stack of their own,
+     * each with the position reached in it and its hash so far.
+     */
+    static int hash(Object value) {
+        if (!(value instanceof StructuredPropertiesMap) && !(value instanceof StructuredPropertiesList))
+            return value == null ? 0 : value.hashCode();
+        
+        Object[] blocks = new Object[16];
+        int[] positions = new int[16];
+        int[] hashes = new int[16];
+        int depth = 1;
+        
+        blocks[0] = value;
+        hashes[0] = value instanceof StructuredPropertiesList ? 1 : 0;
+        
+        for (;;) {
+            int d = depth - 1;
+            Object block = blocks[d];
+            int i = positions[d];
+            int h;
+            
+            boolean isMap = block instanceof StructuredPropertiesMap;
+            
+            if (i == (isMap ? ((StructuredPropertiesMap) block).keys.length : ((StructuredPropertiesList) block).size())) {
+                /* The block is done; its hash goes into the one it is in. */
+                h = hashes[d];
+                blocks[d] = null;
+                
+                if (--depth == 0)
+                    return h;
+                
+                d--;
+                block = blocks[d];
+                i = positions[d];
+                isMap = block instanceof StructuredPropertiesMap;
+            } else {
+                Object child = isMap
+                    ? ((StructuredPropertiesMap) block).values[i]
+                    : ((StructuredPropertiesList) block).get(i);
+                
+                if (child instanceof StructuredPropertiesMap || child instanceof StructuredPropertiesList) {
+                    if (depth == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, depth * 2);
+                        positions = Arrays.copyOf(positions, depth * 2);
+                        hashes = Arrays.copyOf(hashes, depth * 2);
+                    }
+                    
+                    blocks[depth] = child;
+                    positions[depth] = 0;
+                    hashes[depth] = child instanceof StructuredPropertiesList ? 1 : 0;
+                    depth++;
+                    continue;
+                }
+                
+                h = child == null ? 0 : child.hashCode();
+            }
+            
+            if (isMap)
+                hashes[d] += ((StructuredPropertiesMap) block).keys[i].hashCode() ^ h;
+            else
+                hashes[d] = 31 * hashes[d] + h;
+            
+            positions[d] = i + 1;
+        }
+    }
+}
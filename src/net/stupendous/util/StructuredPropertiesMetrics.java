@@ -0,0 +1,88 @@
+/* File: StructuredPropertiesMetrics.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+/**
+ * Receives measurements of parses and lookups, so they can be passed on to
+ * whatever metrics registry a program already reports to.
+ * <p>
+ * A parse is a timer: parsed() is called once for every configuration
+ * loaded, whether or not it parses, with how long it took and how big it
+ * was. A lookup that finds nothing is a counter, keyed by the path that
+ * was looked up, which shows up settings a program expects but that are
+ * missing from its configuration. For example:
+ * <pre>
+ * StructuredPropertiesOptions o = new StructuredPropertiesOptions();
+ * o.setMetrics(new StructuredPropertiesMetrics() {
+ *     public void parsed(long nanos, long bytes, int symbols, int maxDepth, boolean succeeded) {
+ *         registry.timer("config.parse").record(nanos, TimeUnit.NANOSECONDS);
+ *     }
+ *     public void missed(String path) {
+ *         registry.counter("config.miss", "path", path).increment();
+ *     }
+ * });
+ * </pre>
+ * The methods are called on the thread doing the parse or the lookup, so
+ * they should be quick and must be thread safe.
+ * <p>
+ * By default the options use NONE, and nothing is measured: a lookup that
+ * misses does not even build the String of its path.
+ * <p>
+ * The same measurements are also recorded as Java Flight Recorder events,
+ * net.stupendous.util.Parse and net.stupendous.util.LookupMiss, whenever
+ * a recording has them enabled.
+ * 
+ * @see StructuredPropertiesOptions#setMetrics(StructuredPropertiesMetrics)
+ */
+public interface StructuredPropertiesMetrics {
+    /**
+     * Measures nothing.
+     */
+    public static final StructuredPropertiesMetrics NONE = new StructuredPropertiesMetrics() {
+        public void parsed(long nanos, long bytes, int symbols, int maxDepth, boolean succeeded) {
+        }
+        
+        public void missed(String path) {
+        }
+    };
+    
+    /**
+     * Called when a configuration has been parsed, or has failed to parse.
+     * <p>
+     * The bytes are -1 when the size of the input is not known, which is
+     * the case for a Reader, and for an InputStream read by the JFlex lexer.
+     * The symbols and the depth are those the parser got through, which for
+     * an incremental reload is only the entries that changed; when a parse
+     * fails they are 0.
+     * 
+     * @param nanos the time the parse took.
+     * @param bytes the size of the configuration, or -1.
+     * @param symbols the number of symbols parsed.
+     * @param maxDepth how deeply the blocks parsed were nested.
+     * @param succeeded false if the configuration did not parse.
+     */
+    public void parsed(long nanos, long bytes, int symbols, int maxDepth, boolean succeeded);
+    
+    /**
+     * Called when getProperty() or one of the typed accessors finds nothing
+     * at path; the typed accessors then return their default value.
+     * 
+     * @param path the path looked up, with its parts separated by ".".
+     */
+    public void missed(String path);
+}
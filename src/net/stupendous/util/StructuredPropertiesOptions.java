@@ -0,0 +1,442 @@
+/* File: StructuredPropertiesOptions.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+/**
+ * Options that control how StructuredProperties reads a configuration.
+ * <p>
+ * The defaults give exactly the behaviour of the plain constructors, so you
+ * only need to set the options you care about:
+ * <pre>
+ * StructuredPropertiesOptions o = new StructuredPropertiesOptions();
+ * o.setLexer(StructuredPropertiesOptions.Lexer.UTF8);
+ * StructuredProperties c = new StructuredProperties(f, o);
+ * </pre>
+ */
+public class StructuredPropertiesOptions {
+    /**
+     * The lexers that can be used to read a configuration.
+     */
+    public enum Lexer {
+        /** The JFlex generated StructuredPropertiesLexer. */
+        JFLEX,
+        /** The hand written StructuredPropertiesByteLexer. */
+        UTF8
+    }
+    
+    private Lexer lexer                                     = Lexer.JFLEX;
+    private boolean memoryMapped                            = false;
+    private boolean frozen                                  = false;
+    private StructuredPropertiesSymbolTable symbolTable     = null;
+    private boolean lineTracking                            = false;
+    private boolean incremental                             = false;
+    private boolean parallel                                = false;
+    private boolean lazy                                    = false;
+    private int traceSize                                   = 0;
+    private StructuredPropertiesMetrics metrics             = StructuredPropertiesMetrics.NONE;
+    private boolean indexed                                 = false;
+    private boolean columnar                                = false;
+    private StructuredPropertiesIncludeCache includeCache   = null;
+    private int depthLimit                                  = Integer.MAX_VALUE;
+
+    /**
+     * Creates options with the default settings.
+     */
+    
+    public StructuredPropertiesOptions() {
+    }
+
+    /**
+     * Creates a copy of other. The symbol table, if any, the metrics and
+     * the include cache are shared rather than copied.
+     * 
+     * @param other
+     */
+    
+    public StructuredPropertiesOptions(StructuredPropertiesOptions other) {
+        this.lexer = other.lexer;
+        this.memoryMapped = other.memoryMapped;
+        this.frozen = other.frozen;
+        this.symbolTable = other.symbolTable;
+        this.lineTracking = other.lineTracking;
+        this.incremental = other.incremental;
+        this.parallel = other.parallel;
+        this.lazy = other.lazy;
+        this.traceSize = other.traceSize;
+        this.metrics = other.metrics;
+        this.indexed = other.indexed;
+        this.columnar = other.columnar;
+        this.includeCache = other.includeCache;
+        this.depthLimit = other.depthLimit;
+    }
+
+    /**
+     * Returns the lexer used to read Files and InputStreams.
+     * 
+     * @return Lexer
+     */
+    
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * Selects the lexer used to read Files and InputStreams. The UTF8 lexer
+     * works directly on the bytes of the file and only creates Strings for
+     * the values the parser keeps. A Reader has already been decoded into
+     * characters, so it is always read with the JFlex lexer.
+     * 
+     * @param lexer
+     */
+    
+    public void setLexer(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Returns whether Files are memory mapped rather than read.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * When set, a File is memory mapped and lexed directly from the mapping
+     * by the UTF8 lexer, whichever lexer is selected, so it is never copied
+     * into a buffer first. The file handle is closed as soon as the mapping
+     * has been made; see StructuredProperties.load(File) for when the
+     * mapping itself goes away.
+     * 
+     * @param memoryMapped
+     */
+    
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Returns whether the configuration is loaded as an immutable tree.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * When set, every block in the configuration becomes an immutable
+     * StructuredPropertiesMap or StructuredPropertiesList sized exactly to
+     * its entries, instead of a HashMap or ArrayList. They still implement
+     * Map and List, but use a fraction of the memory and cannot be changed.
+     * 
+     * @param frozen
+     */
+    
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    /**
+     * Returns the symbol table shared by every configuration loaded with
+     * these options, or null if each parse uses its own.
+     * 
+     * @return StructuredPropertiesSymbolTable
+     */
+    
+    public StructuredPropertiesSymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * Shares one symbol table between every configuration loaded with these
+     * options, so that keys are deduplicated across all of them rather than
+     * only within each file. The table is safe to share between threads.
+     * When this is null, which is the default, every parse still interns
+     * its keys, but in a table of its own.
+     * 
+     * @param symbolTable
+     */
+    
+    public void setSymbolTable(StructuredPropertiesSymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    /**
+     * Returns whether the line each value came from is remembered.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isLineTracking() {
+        return lineTracking;
+    }
+
+    /**
+     * Controls whether the line each value and block came from is
+     * remembered, so that StructuredProperties.getLine() and the errors
+     * from typed accessors such as getInt() can cite it. It is off by
+     * default, as it keeps an entry for every value in a table that lives
+     * as long as the configuration.
+     * 
+     * @param lineTracking
+     */
+    
+    public void setLineTracking(boolean lineTracking) {
+        this.lineTracking = lineTracking;
+    }
+
+    /**
+     * Returns whether StructuredProperties.reload() only parses the
+     * top-level entries that changed.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Makes StructuredProperties.reload() only parse the top-level entries
+     * of the file that have changed since the last load, and reuse the
+     * parsed values of the rest. To find them the configuration keeps a copy
+     * of the file's bytes for as long as it lives. Files and InputStreams are
+     * read into memory with the UTF8 lexer rather than memory mapped.
+     * 
+     * @param incremental
+     */
+    
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Returns whether large Files and InputStreams are parsed on several
+     * threads at once.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Makes StructuredProperties parse large Files and InputStreams on
+     * several threads at once. The file is read into memory, or mapped if
+     * the options say so, and quickly scanned for where its top-level
+     * entries start. Runs of entries are then lexed and parsed as separate
+     * tasks on the ForkJoinPool the caller is running in, or else the common
+     * pool, and joined in file order.
+     * <p>
+     * The result is the same as parsing the file on one thread, and so are
+     * the errors: a file that does not parse is parsed again on one thread
+     * to report them. Configurations too small to be worth splitting are
+     * always parsed on one thread, as are Readers.
+     * 
+     * @param parallel
+     */
+    
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Returns whether the blocks of Files and InputStreams are only built
+     * when they are first used.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Makes StructuredProperties build the blocks of Files and InputStreams
+     * only when they are first used. The whole configuration is still
+     * parsed when it is loaded, and any error in it is reported then, but
+     * nothing inside a block is decoded or allocated until the block is
+     * read. This suits programs that read a small part of a large shared
+     * configuration.
+     * <p>
+     * A lazy configuration is immutable, whether or not it is frozen, and
+     * keeps the file's bytes for as long as it lives; a memory mapped file
+     * must not be changed in place while it is in use. Incremental and
+     * parallel loading are not used for lazy configurations.
+     * 
+     * @param lazy
+     */
+    
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Returns the number of recent parser events traced, or 0 if parsing
+     * is not traced.
+     * 
+     * @return int
+     */
+    
+    public int getTraceSize() {
+        return traceSize;
+    }
+
+    /**
+     * Makes the parser keep a StructuredPropertiesTrace of its last
+     * traceSize symbols and decisions, which is attached to the Error if
+     * the configuration does not parse. It is 0, for no trace, by default.
+     * 
+     * @param traceSize
+     */
+    
+    public void setTraceSize(int traceSize) {
+        this.traceSize = traceSize;
+    }
+
+    /**
+     * Returns what parses and lookups are reported to.
+     * 
+     * @return StructuredPropertiesMetrics
+     */
+    
+    public StructuredPropertiesMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reports every parse, and every lookup that finds nothing, to metrics.
+     * It is StructuredPropertiesMetrics.NONE, which measures nothing, by
+     * default; null also turns measuring off.
+     * 
+     * @param metrics
+     */
+    
+    public void setMetrics(StructuredPropertiesMetrics metrics) {
+        this.metrics = metrics == null ? StructuredPropertiesMetrics.NONE : metrics;
+    }
+
+    /**
+     * Returns whether a StructuredPropertiesIndex of the configuration is
+     * built when it is loaded.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * When set, a StructuredPropertiesIndex of every path in the
+     * configuration is built each time it is loaded, and getProperty()
+     * finds a path with a single lookup in it instead of walking the tree.
+     * getProperty() can then also reach the entries of a list, by their
+     * position, as in "servers.0". It is off by default, as the index
+     * takes time to build and memory to hold, and only follows changes to
+     * the tree when it is loaded again.
+     * 
+     * @param indexed
+     */
+    
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Returns whether tables in a frozen configuration are held column by
+     * column.
+     * 
+     * @return boolean
+     */
+    
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    /**
+     * When set along with frozen, a list of two or more lists of strings
+     * that are all the same width, such as the one in 2darray.conf, is
+     * held as a StructuredPropertiesTable: its first row names the columns,
+     * and the rest are held column by column, as ints, longs or doubles
+     * where every entry of a column is one. A large table then takes a
+     * fraction of the memory of its lists. It has no effect on a lazy
+     * configuration.
+     * 
+     * @param columnar
+     */
+    
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
+    /**
+     * Returns the cache that included files are read through, or null if
+     * includes are turned off.
+     * 
+     * @return StructuredPropertiesIncludeCache
+     */
+    
+    public StructuredPropertiesIncludeCache getIncludeCache() {
+        return includeCache;
+    }
+
+    /**
+     * Turns @include directives on, reading the files they name through
+     * includeCache. Includes can read any file the program can, so they
+     * are off by default, and an @include is an error; null turns them
+     * off again. Configurations that should share the files they include
+     * can be given the same cache.
+     * 
+     * @param includeCache
+     */
+    
+    public void setIncludeCache(StructuredPropertiesIncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    /**
+     * Returns how deeply blocks may be nested in a configuration.
+     * 
+     * @return int
+     */
+    
+    public int getDepthLimit() {
+        return depthLimit;
+    }
+
+    /**
+     * Makes a configuration with blocks nested more than depthLimit deep
+     * fail to load, with an Error giving the line of the first block that
+     * is too deep. The parser does not recurse, so any depth will parse;
+     * this guards against configurations, such as ones generated by
+     * another program, that would take too much memory to hold. There is
+     * no limit by default.
+     * 
+     * @param depthLimit
+     */
+    
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+}
@@ -0,0 +1,584 @@
+/* File: StructuredPropertiesParser.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+/**
+ * The hand written parser for Structured Properties configuration files.
+ * <p>
+ * Rather than building a tree itself, the parser reports what it finds to a
+ * StructuredPropertiesHandler as it goes. StructuredProperties uses a
+ * StructuredPropertiesTreeBuilder to get its HashMap; if you want to build
+ * your own objects from a large configuration you can supply your own
+ * handler instead:
+ * <pre>
+ * StructuredPropertiesParser p = new StructuredPropertiesParser(reader);
+ * p.parse(myHandler);
+ * </pre>
+ * Symbols are pulled from the lexer as the parser needs them, so only the
+ * current symbol and a small lookahead buffer are ever held in memory,
+ * regardless of the size of the configuration. They are held as
+ * primitives rather than as objects, and with the
+ * StructuredPropertiesByteLexer a string is only decoded when it is passed
+ * to the handler.
+ * <p>
+ * A parser can be used again for any number of configurations, one after
+ * the other. reset() starts it on the next one, reusing its lexer and the
+ * lexer's buffers, so parsing many small configurations allocates little
+ * more than what the handler builds:
+ * <pre>
+ * StructuredPropertiesParser p = new StructuredPropertiesParser();
+ * for (File f : files) {
+ *     p.reset(new FileReader(f));
+ *     p.parse(myHandler);
+ * }
+ * </pre>
+ * StructuredProperties keeps a parser for each thread in this way. A
+ * parser is not itself safe for use by more than one thread at a time.
+ * <p>
+ * The parser works through the grammar as a recursive descent parser
+ * would, but keeps the blocks it is in on a stack of its own rather than
+ * recursing for each one, so how deeply blocks can be nested is limited
+ * only by memory, or by setDepthLimit().
+ * 
+ * @see StructuredPropertiesHandler
+ */
+public class StructuredPropertiesParser {
+    /* The events traced when StructuredProperties.isDebugging() is set. */
+    private static final int DEBUG_TRACE_SIZE               = 256;
+    
+    private static final ByteBuffer EMPTY                   = ByteBuffer.allocate(0);
+    
+    /* The deepest stack of blocks a parser keeps between parses. */
+    private static final int MAX_KEPT_DEPTH                 = 4096;
+    
+    /* A parser for each thread that StructuredProperties reuses. It is taken
+     * out while in use, so a configuration loaded from inside a parse, for
+     * an include, gets a parser of its own.
+     */
+    private static final ThreadLocal<StructuredPropertiesParser> pool
+                                                            = new ThreadLocal<StructuredPropertiesParser>();
+
+    private StructuredPropertiesScanner scanner             = null;
+    private StructuredPropertiesHandler handler             = null;
+    private StructuredPropertiesTokens tokens               = new StructuredPropertiesTokens();
+    private int symbolCount                                 = 0;
+    private int depth                                       = 0;
+    private int maxDepth                                    = 0;
+    private int depthLimit                                  = Integer.MAX_VALUE;
+    private boolean[] blockIsMap                            = new boolean[16];
+    private StructuredPropertiesTrace trace                 = null;
+    
+    /* The table a pooled parser's lexer uses when none is given. */
+    private StructuredPropertiesSymbolTable symbols         = null;
+
+    /**
+     * Creates a parser with nothing to read yet. Call one of the reset()
+     * methods to give it a configuration before parsing.
+     */
+    
+    public StructuredPropertiesParser() {
+    }
+
+    /**
+     * Creates a parser that reads the configuration from the Reader.
+     * 
+     * @param in
+     */
+    
+    public StructuredPropertiesParser(java.io.Reader in) {
+        this(new StructuredPropertiesLexer(in));
+    }
+    
+    /**
+     * Creates a parser that reads the configuration from the InputStream.
+     * 
+     * @param in
+     */
+    
+    public StructuredPropertiesParser(java.io.InputStream in) {
+        this(new StructuredPropertiesLexer(in));
+    }
+    
+    /**
+     * Creates a parser that reads the configuration from the UTF-8 bytes
+     * between the position and the limit of the buffer, using the
+     * StructuredPropertiesByteLexer.
+     * 
+     * @param in
+     */
+    
+    public StructuredPropertiesParser(java.nio.ByteBuffer in) {
+        this(new StructuredPropertiesByteLexer(in));
+    }
+    
+    /**
+     * Creates a parser that reads symbols from any scanner.
+     * 
+     * @param scanner
+     */
+    
+    public StructuredPropertiesParser(StructuredPropertiesScanner scanner) {
+        this.scanner = scanner;
+    }
+    
+    /**
+     * Starts the parser on a configuration read from the Reader. If the
+     * parser's scanner is a StructuredPropertiesLexer, it is reset and
+     * reused, keeping its buffers and symbol table.
+     * 
+     * @param in
+     */
+    
+    public void reset(java.io.Reader in) {
+        if (scanner instanceof StructuredPropertiesLexer)
+            ((StructuredPropertiesLexer) scanner).reset(in);
+        else
+            scanner = new StructuredPropertiesLexer(in);
+    }
+    
+    /**
+     * Starts the parser on a configuration read from the InputStream. If
+     * the parser's scanner is a StructuredPropertiesLexer, it is reset and
+     * reused, keeping its buffers and symbol table.
+     * 
+     * @param in
+     */
+    
+    public void reset(java.io.InputStream in) {
+        if (scanner instanceof StructuredPropertiesLexer)
+            ((StructuredPropertiesLexer) scanner).reset(new java.io.InputStreamReader(in));
+        else
+            scanner = new StructuredPropertiesLexer(in);
+    }
+    
+    /**
+     * Starts the parser on a configuration in the UTF-8 bytes between the
+     * position and the limit of the buffer. If the parser's scanner is a
+     * StructuredPropertiesByteLexer, it is reset and reused, keeping its
+     * buffers and symbol table.
+     * 
+     * @param in
+     */
+    
+    public void reset(ByteBuffer in) {
+        if (scanner instanceof StructuredPropertiesByteLexer)
+            ((StructuredPropertiesByteLexer) scanner).reset(in);
+        else
+            scanner = new StructuredPropertiesByteLexer(in);
+    }
+    
+    /**
+     * Starts the parser on the symbols of another scanner.
+     * 
+     * @param scanner
+     */
+    
+    public void reset(StructuredPropertiesScanner scanner) {
+        this.scanner = scanner;
+    }
+    
+    /**
+     * Returns the scanner the parser reads symbols from.
+     * 
+     * @return StructuredPropertiesScanner
+     */
+    
+    public StructuredPropertiesScanner getScanner() {
+        return scanner;
+    }
+    
+    /* Takes this thread's pooled parser, or a new one if it is in use. */
+    static StructuredPropertiesParser acquire() {
+        StructuredPropertiesParser parser = pool.get();
+        
+        if (parser == null)
+            return new StructuredPropertiesParser();
+        
+        pool.set(null);
+        return parser;
+    }
+    
+    /* Puts a parser taken by acquire() back, letting go of its input,
+     * which may be a large mapped file, and of its trace and depth limit.
+     */
+    void release() {
+        if (scanner instanceof StructuredPropertiesByteLexer)
+            ((StructuredPropertiesByteLexer) scanner).reset(EMPTY);
+        else if (scanner instanceof StructuredPropertiesLexer)
+            ((StructuredPropertiesLexer) scanner).reset((java.io.Reader) null);
+        else
+            scanner = null;
+        
+        trace = null;
+        depthLimit = Integer.MAX_VALUE;
+        pool.set(this);
+    }
+    
+    /* The parser's own symbol table, emptied, for a lexer of a pooled
+     * parser that has not been given one.
+     */
+    StructuredPropertiesSymbolTable symbolTable() {
+        if (symbols == null)
+            symbols = new StructuredPropertiesSymbolTable();
+        else
+            symbols.clear();
+        
+        return symbols;
+    }
+    
+    /**
+     * Records the parser's recent symbols and decisions in trace, or stops
+     * recording them if trace is null. If a parse fails, the trace is
+     * attached to the Error as a suppressed exception.
+     * 
+     * @param trace
+     */
+    
+    public void setTrace(StructuredPropertiesTrace trace) {
+        this.trace = trace;
+    }
+    
+    /**
+     * Returns the trace the parser records into, or null.
+     * 
+     * @return StructuredPropertiesTrace
+     */
+    
+    public StructuredPropertiesTrace getTrace() {
+        return trace;
+    }
+    
+    /**
+     * Returns the number of symbols read by the last parse, including the
+     * EOF at the end of the configuration.
+     * 
+     * @return int
+     */
+    
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+    
+    /**
+     * Returns how deeply blocks were nested in the configuration read by
+     * the last parse: 0 if the root only held strings, 1 if there was a
+     * block in it, and so on.
+     * 
+     * @return int
+     */
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    /**
+     * Returns how deeply blocks may be nested before the parse fails.
+     * 
+     * @return int
+     */
+    
+    public int getDepthLimit() {
+        return depthLimit;
+    }
+    
+    /**
+     * Makes a parse fail with an Error as soon as blocks are nested more
+     * than depthLimit deep, counted as for getMaxDepth(). There is no
+     * limit by default.
+     * 
+     * @param depthLimit
+     */
+    
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+    
+    /**
+     * Parses the configuration, calling the handler for every map, list,
+     * key and value found. Any events up to a syntax error will already
+     * have been delivered when the Error is thrown.
+     * 
+     * @param handler
+     * @throws Error
+     */
+    
+    public void parse(StructuredPropertiesHandler handler) throws Error {
+        boolean debugging = StructuredProperties.isDebugging();
+        
+        if (debugging && trace == null)
+            trace = new StructuredPropertiesTrace(DEBUG_TRACE_SIZE);
+
+        this.handler = handler;
+        depth = 0;
+        maxDepth = 0;
+        
+        try {
+            tokens.start(scanner, trace);
+            parseRoot();
+        } catch (Error e) {
+            if (trace != null)
+                e.addSuppressed(trace.failure());
+            throw e;
+        } finally {
+            /* Nothing of this parse is kept once it is over. */
+            symbolCount = tokens.getCount();
+            tokens.clear();
+            this.handler = null;
+            
+            if (blockIsMap.length > MAX_KEPT_DEPTH)
+                blockIsMap = new boolean[16];
+        }
+        
+        if (debugging) {
+            System.out.print(trace);
+            System.out.println("Finished parsing the file.");
+            System.out.println("Number of symbols: " + symbolCount);
+        }
+    }
+    
+    private void decision(String description, int line) {
+        if (trace != null)
+            trace.decision(description, line);
+    }
+    
+    private Error expectedError(String expected) throws Error {
+        return new Error(String.format(
+            "Parse error on line %d: Expected symbol %s, got %s [%s].", 
+            tokens.line(0), expected, tokens.type(0), tokens.value(0)));
+    }
+    
+    private void nextSymbol() throws Error {
+    	if (tokens.type(0) == Type.EOF)
+    		throw new Error("Unexpected EOF in configuration. Is the configuration file complete?");
+    	
+    	tokens.next();
+    }
+
+    /* Parses the root and every block in it. The blocks that are open are
+     * kept on a stack of the parser's own rather than the Java stack, the
+     * block at depth being a map if blockIsMap[depth] is set, and the root
+     * being at depth 0.
+     */
+    private void parseRoot() throws Error {
+        handler.startMap(1);
+        blockIsMap[0] = true;
+        
+        for (;;) {
+            if (!blockIsMap[depth]) {
+                parseListEntry();
+                continue;
+            }
+            
+            switch (tokens.type(0)) {
+            case STRING:
+                parseKeyValue();
+                break;
+            case INCLUDE:
+                parseInclude();
+                break;
+            case EOF:
+                if (depth == 0) {
+                    handler.endBlock(tokens.line(0));
+                    return;
+                }
+                
+                throw expectedError(String.format("%s or %s", Type.STRING, Type.BLOCK_END));
+            case BLOCK_END:
+                /* A stray } ends the root early, but the root is still ended. */
+                if (depth == 0) {
+                    handler.endBlock(tokens.line(0));
+                    return;
+                }
+                
+                endBlock();
+                break;
+            default:
+                throw expectedError(Type.BLOCK_END.toString());
+            }
+        }
+    }
+
+    private void parseKeyValue() throws Error {
+        handler.key(tokens.value(0), tokens.line(0));
+        
+        nextSymbol();
+        
+        switch (tokens.type(0)) {
+        case BLOCK_START:
+            parseBlock();
+            return;
+        case EQUALS:
+            nextSymbol();
+            
+            switch (tokens.type(0)) {
+            case STRING:
+                handler.value(tokens.value(0), tokens.line(0));
+                nextSymbol();
+                return;
+            case BLOCK_START:
+                parseBlock();
+                return;
+            default:
+                throw expectedError(Type.STRING.toString());
+            }
+        	
+       	default:
+       		throw  expectedError(String.format("%s [{] or %s [=]", Type.BLOCK_START.toString(), Type.EQUALS.toString()));
+        }
+    }
+
+    private void parseInclude() throws Error {
+        int line = tokens.line(0);
+        
+        nextSymbol();
+        
+        if (tokens.type(0) != Type.STRING)
+            throw expectedError(Type.STRING.toString());
+        
+        decision("include", line);
+        handler.include(tokens.value(0), line);
+        nextSymbol();
+    }
+
+    private void parseListEntry() throws Error {
+        switch (tokens.type(0)) {
+        case STRING:
+            handler.value(tokens.value(0), tokens.line(0));
+            nextSymbol();
+            return;
+        case BLOCK_START:
+            parseBlock();
+            return;
+        case BLOCK_END:
+            endBlock();
+            return;
+        default:
+            throw expectedError(
+                    String.format(
+                            "%s, or %s",
+                            Type.STRING.toString(),
+                            Type.BLOCK_END.toString()
+                        )
+                    );
+        }
+    }
+
+    private void parseBlock() throws Error {
+    	
+    	/* Starts a block from { ..... }
+    	 * 
+    	 * The idea is that we are given the current symbol pointing to 
+    	 * the open brace, and we eat tokens until we know what kind of
+    	 * block it is. It is then pushed for parseRoot() to fill and end,
+    	 * unless it is empty, in which case it is already over.
+    	 *  
+    	 */
+    	
+    	assert (tokens.type(0) == Type.BLOCK_START) : Type.BLOCK_START;
+    	
+    	int line = tokens.line(0);
+    	
+        if (++depth > maxDepth) {
+            maxDepth = depth;
+            
+            if (depth > depthLimit)
+                throw new Error(String.format(
+                    "Parse error on line %d: Blocks are nested more than %d deep.", line, depthLimit));
+        }
+        
+    	nextSymbol();
+    	
+    	switch (tokens.type(0)) {
+    	case STRING:
+    		/* Its either a hashmap or an arraylist. The only way to know for
+    		 * sure is to look at the symbol following this one.
+    		 */
+    		switch(tokens.type(1)) {
+    		case STRING:
+                /* Must be an ArrayList */
+    		    decision("list", line);
+    		    handler.startList(line);
+    		    push(false);
+            	return;
+    		case BLOCK_START:
+    		case EQUALS:
+                /* Its a HashMap */
+    		    decision("map", line);
+    		    handler.startMap(line);
+    		    push(true);
+                return;
+            default:
+                /* Report the offending symbol, not the one before it. */
+                nextSymbol();
+            	throw expectedError(String.format(
+                            "%s, %s or %s",
+                            Type.STRING.toString(),
+                            Type.BLOCK_START.toString(),
+                            Type.EQUALS.toString()
+                        ));
+    		}
+        case INCLUDE:
+            /* Only a map can include another file. */
+            decision("map", line);
+            handler.startMap(line);
+            push(true);
+            return;
+        case BLOCK_END:
+            /* There is no way to know what it could be, report null. */
+            decision("empty block", line);
+            handler.value(null, line);
+        	nextSymbol();
+        	depth--;
+            return;
+        case BLOCK_START:
+            /* A block instead of a string means this is an array. */
+            decision("list of blocks", line);
+            handler.startList(line);
+            push(false);
+        	return;
+        default:
+            throw expectedError(
+                    String.format(
+                            "%s, %s or %s",
+                            Type.STRING.toString(),
+                            Type.BLOCK_START.toString(),
+                            Type.BLOCK_END.toString()
+                        )
+                    );
+        }
+    }
+    
+    private void push(boolean isMap) {
+        if (depth == blockIsMap.length)
+            blockIsMap = Arrays.copyOf(blockIsMap, depth * 2);
+        
+        blockIsMap[depth] = isMap;
+    }
+    
+    /* Ends the block on top of the stack at its closing brace. */
+    private void endBlock() throws Error {
+        handler.endBlock(tokens.line(0));
+        nextSymbol();
+        depth--;
+    }
+}
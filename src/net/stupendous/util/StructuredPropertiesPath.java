@@ -0,0 +1,289 @@
+/* File: StructuredPropertiesPath.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A path to an entry in a configuration, compiled once and resolved as
+ * often as you like.
+ * <p>
+ * getProperty(String, String) has to split its key into parts on every
+ * call. If you read the same few properties over and over, compile their
+ * paths up front instead:
+ * <pre>
+ * static final StructuredPropertiesPath SERVER_IP = 
+ *     StructuredPropertiesPath.compile("options.server-ip");
+ * ...
+ * Object ip = SERVER_IP.resolve(c);
+ * </pre>
+ * Resolving a path does not allocate. If the configuration was loaded
+ * frozen, or from a StructuredPropertiesImage, its tree can never change,
+ * so the path also remembers the string it found and returns it straight
+ * away the next time it is resolved against the same tree. The typed
+ * accessors of StructuredProperties, such as getInt(), remember the value
+ * they converted along with the string it came from, whatever the tree is
+ * made of, and only convert again when the path finds a different string.
+ * The tree is only weakly referenced, so a path kept in a static field
+ * does not keep an old configuration alive after a reload. Paths are
+ * immutable apart from that cache, and may be shared between threads.
+ * 
+ * @see StructuredProperties#getProperty(StructuredPropertiesPath)
+ */
+public final class StructuredPropertiesPath {
+    private final String[] parts;
+    private final String key;
+    private volatile Resolved resolved                      = null;
+    
+    /* The root the last string was found in, the string, and the string
+     * converted to a primitive by the last typed accessor, if any. Blocks
+     * are never remembered, as one may hold on to a whole tree.
+     */
+    private static final class Resolved extends WeakReference<Map<?, ?>> {
+        final String value;
+        final int kind;
+        final long bits;
+        
+        Resolved(Map<?, ?> root, String value, int kind, long bits) {
+            super(root);
+            this.value = value;
+            this.kind = kind;
+            this.bits = bits;
+        }
+    }
+    
+    private StructuredPropertiesPath(String[] parts, String key) {
+        this.parts = parts;
+        this.key = key;
+    }
+
+    /**
+     * Compiles a path of keys separated by '.', in the same way as
+     * getProperty(String, String).
+     * 
+     * @param path
+     * @return StructuredPropertiesPath
+     */
+    
+    public static StructuredPropertiesPath compile(String path) {
+        ArrayList<String> parts = new ArrayList<String>();
+        int start = 0;
+        int dot;
+        
+        while ((dot = path.indexOf('.', start)) >= 0) {
+            parts.add(path.substring(start, dot));
+            start = dot + 1;
+        }
+        
+        if (parts.isEmpty())
+            return new StructuredPropertiesPath(new String[] { path }, path);
+        
+        parts.add(path.substring(start));
+        
+        /* Like String.split(), drop any empty parts from the end. */
+        while (!parts.isEmpty() && parts.get(parts.size() - 1).length() == 0)
+            parts.remove(parts.size() - 1);
+        
+        return new StructuredPropertiesPath(parts.toArray(new String[parts.size()]), path);
+    }
+
+    /**
+     * Creates a path from its keys, in the same way as
+     * getProperty(String...). Use this if your keys contain '.'.
+     * 
+     * @param parts
+     * @return StructuredPropertiesPath
+     */
+    
+    public static StructuredPropertiesPath of(String... parts) {
+        return new StructuredPropertiesPath(parts.clone(), null);
+    }
+    
+    /* The string the path was compiled from, or null if it was made by of(). */
+    String key() {
+        return key;
+    }
+    
+    /**
+     * Returns the number of keys in the path.
+     * 
+     * @return int
+     */
+    
+    public int size() {
+        return parts.length;
+    }
+    
+    /**
+     * Returns the key at the given position in the path.
+     * 
+     * @param index
+     * @return String
+     */
+    
+    public String get(int index) {
+        return parts[index];
+    }
+
+    /**
+     * Returns the entry at this path in the configuration, or null if there
+     * is no such entry.
+     * 
+     * @param properties
+     * @return Map, List, String
+     */
+    
+    public Object resolve(StructuredProperties properties) {
+        return resolve(properties.getTree());
+    }
+    
+    /**
+     * Returns the entry at this path below the given Map, or null if there
+     * is no such entry.
+     * 
+     * @param root
+     * @return Map, List, String
+     */
+    
+    public Object resolve(Map<?, ?> root) {
+        Resolved r = resolved;
+        
+        /* Only a frozen tree is sure to give the same answer next time. */
+        boolean immutable = isImmutable(root);
+        
+        if (immutable && r != null && r.get() == root)
+            return r.value;
+        
+        Object value = walk(root);
+        
+        if (immutable && (value == null || value instanceof String))
+            resolved = new Resolved(root, (String) value, 0, 0);
+        
+        return value;
+    }
+    
+    /* Resolves the path and converts the entry to the given kind of
+     * primitive, packed into a long. The result is remembered with the
+     * string it came from. On a frozen tree that is the answer for as long
+     * as the tree is the same; on any other tree, the path is walked again
+     * but the string is only converted again if it is a different one.
+     */
+    long resolve(StructuredProperties properties, int kind, long defaultValue) throws Error {
+        StructuredPropertiesSnapshot snapshot = properties.getSnapshot();
+        Map<String, Object> root = snapshot.getRoot();
+        Resolved r = resolved;
+        boolean immutable = isImmutable(root);
+        Object value;
+        
+        if (immutable && r != null && r.get() == root) {
+            if (r.kind == kind)
+                return r.bits;
+            
+            value = r.value;
+        } else {
+            value = walk(root);
+        }
+        
+        if (r != null && r.kind == kind && value != null && r.value == value)
+            return r.bits;
+        
+        if (value == null) {
+            properties.missed(this);
+            return defaultValue;
+        }
+        
+        long bits;
+        
+        try {
+            if (!(value instanceof String))
+                throw new IllegalArgumentException(StructuredPropertiesValues.describe(kind));
+            
+            bits = StructuredPropertiesValues.parse(kind, (String) value);
+        } catch (IllegalArgumentException e) {
+            int line = snapshot.getLine(this);
+            String found = value instanceof String ? "\"" + value + "\"" : "a block";
+            
+            if (line < 0)
+                throw new Error(String.format("Configuration error: %s is %s, expected %s.", 
+                        this, found, e.getMessage()));
+            
+            throw new Error(String.format("Configuration error on line %d: %s is %s, expected %s.", 
+                    line, this, found, e.getMessage()));
+        }
+        
+        resolved = new Resolved(root, (String) value, kind, bits);
+        return bits;
+    }
+    
+    /* Whether the tree below root can never change. */
+    private static boolean isImmutable(Map<?, ?> root) {
+        return root instanceof StructuredPropertiesMap || root instanceof StructuredPropertiesImage.ImageMap;
+    }
+    
+    private Object walk(Map<?, ?> root) {
+        Map<?, ?> map = parent(root);
+        
+        return map == null ? null : map.get(parts[parts.length - 1]);
+    }
+    
+    /* The map below root that holds the last key of the path, or null. */
+    Map<?, ?> parent(Map<?, ?> root) {
+        if (parts.length == 0 || root == null)
+            return null;
+        
+        Map<?, ?> map = root;
+        
+        for (int i = 0; i < parts.length - 1; i++) {
+            Object next = map.get(parts[i]);
+            
+            if (!(next instanceof Map<?, ?>))
+                return null;
+            
+            map = (Map<?, ?>) next;
+        }
+        
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StructuredPropertiesPath 
+            && Arrays.equals(parts, ((StructuredPropertiesPath) o).parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(parts);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0)
+                s.append('.');
+            s.append(parts[i]);
+        }
+        
+        return s.toString();
+    }
+}
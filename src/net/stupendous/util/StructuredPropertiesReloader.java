@@ -0,0 +1,327 @@
+/* File: StructuredPropertiesReloader.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current contents of a configuration file and replaces them when
+ * the file changes.
+ * <p>
+ * Each version of the file is parsed into a new, frozen StructuredProperties
+ * which is never modified afterwards, and is then published with a single
+ * atomic swap. Readers call get() and use what it returns; they never block,
+ * and they see either the old configuration or the new one, never a
+ * partially parsed one. A reader that needs several values from the same
+ * version should call get() once and read them all from the result.
+ * <pre>
+ * StructuredPropertiesReloader r = new StructuredPropertiesReloader(f);
+ * r.start();
+ * ...
+ * int port = r.get().getInt(8080, "server.port");
+ * </pre>
+ * <p>
+ * The file is watched with a WatchService on its directory from a daemon
+ * thread, which also does the parsing. Editors often write a file in
+ * several steps, so a change is only parsed once the directory has been
+ * quiet for the settle time. If the new version cannot be read or does not
+ * parse, the previous configuration stays in place and the Error is
+ * passed to the Listener, if there is one.
+ * <p>
+ * Each version is loaded with StructuredProperties.reload(), so if the
+ * options are incremental only the top-level entries that changed are
+ * parsed again.
+ * <p>
+ * StructuredProperties.load() can also replace the configuration of an
+ * existing instance while other threads read it. This class gives each
+ * version an instance of its own instead, so whatever get() returned goes
+ * on holding the same version for as long as it is used.
+ */
+public class StructuredPropertiesReloader implements Closeable {
+    /**
+     * Told about each reload, on the thread that did it. Anything a
+     * Listener throws is handed to the uncaught exception handler of the
+     * watching thread, which goes on watching.
+     */
+    public interface Listener {
+        /**
+         * Called after properties has replaced the previous configuration.
+         * 
+         * @param properties
+         */
+        void reloaded(StructuredProperties properties);
+        
+        /**
+         * Called when the file changed but could not be loaded. The previous
+         * configuration is still in place.
+         * 
+         * @param error
+         */
+        void failed(Error error);
+    }
+    
+    private final File configFile;
+    private final StructuredPropertiesOptions options;
+    private final AtomicReference<StructuredProperties> current
+                                                            = new AtomicReference<StructuredProperties>();
+    private final Object reloading                          = new Object();
+    private volatile Listener listener                      = null;
+    private volatile long settleMillis                      = 100;
+    private WatchService watcher                            = null;
+    private Thread thread                                   = null;
+
+    /**
+     * Loads configFile with the default options.
+     * 
+     * @param configFile
+     * @throws Error if the file cannot be read or parsed.
+     */
+    
+    public StructuredPropertiesReloader(File configFile) throws Error {
+        this(configFile, new StructuredPropertiesOptions());
+    }
+
+    /**
+     * Loads configFile with a copy of options. The copy is always frozen,
+     * whatever options says, so that every version is immutable. A symbol
+     * table in options is shared by every version, so keys that survive a
+     * reload are not duplicated.
+     * 
+     * @param configFile
+     * @param options
+     * @throws Error if the file cannot be read or parsed.
+     */
+    
+    public StructuredPropertiesReloader(File configFile, StructuredPropertiesOptions options) throws Error {
+        this.configFile = configFile.getAbsoluteFile();
+        this.options = new StructuredPropertiesOptions(options);
+        this.options.setFrozen(true);
+        
+        if (this.options.getSymbolTable() == null)
+            this.options.setSymbolTable(new StructuredPropertiesSymbolTable());
+        
+        current.set(read());
+    }
+
+    /**
+     * Returns the current configuration. This is a single volatile read.
+     * 
+     * @return StructuredProperties
+     */
+    
+    public StructuredProperties get() {
+        return current.get();
+    }
+
+    /**
+     * Reads the file now, on the calling thread, and replaces the current
+     * configuration with it. This works whether or not the file is being
+     * watched.
+     * 
+     * @return the new configuration.
+     * @throws Error if the file cannot be read or parsed, in which case the
+     *         current configuration is left in place.
+     */
+    
+    public StructuredProperties reload() throws Error {
+        /* Otherwise an older version could be published after a newer one. */
+        synchronized (reloading) {
+            StructuredProperties properties = read();
+            
+            current.set(properties);
+            return properties;
+        }
+    }
+
+    /**
+     * Starts watching the file. Has no effect if it is already being
+     * watched.
+     * 
+     * @throws Error if the directory cannot be watched.
+     */
+    
+    public synchronized void start() throws Error {
+        if (thread != null)
+            return;
+        
+        Path dir = configFile.getParentFile().toPath();
+        
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new Error("Unable to watch " + dir + ": " + e.getMessage(), e);
+        }
+        
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watch(watcher);
+            }
+        }, "StructuredPropertiesReloader " + configFile.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the file. The current configuration remains available
+     * from get().
+     */
+    
+    public synchronized void close() {
+        if (thread == null)
+            return;
+        
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            /* The watching thread stops either way. */
+        }
+        
+        thread = null;
+        watcher = null;
+    }
+
+    /**
+     * Sets the Listener told about each reload by the watching thread, or
+     * null for none.
+     * 
+     * @param listener
+     */
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets how long the directory must be quiet after a change before the
+     * file is read. The default is 100 milliseconds.
+     * 
+     * @param time
+     * @param unit
+     */
+    
+    public void setSettleTime(long time, TimeUnit unit) {
+        this.settleMillis = unit.toMillis(time);
+    }
+
+    /**
+     * Returns the file being loaded.
+     * 
+     * @return File
+     */
+    
+    public File getFile() {
+        return configFile;
+    }
+
+    private StructuredProperties read() throws Error {
+        /* load(File) only reports a missing file, so check for it here. */
+        if (!configFile.isFile())
+            throw new Error("Unable to read configuration: " + configFile + " does not exist.");
+        
+        StructuredProperties previous = current.get();
+        StructuredProperties properties;
+        
+        if (previous == null)
+            properties = new StructuredProperties(configFile, options);
+        else
+            properties = previous.reload(configFile);
+        
+        if (properties.getTree() == null)
+            throw new Error("Unable to read configuration: " + configFile);
+        
+        return properties;
+    }
+
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                if (!changed(watcher.take()))
+                    continue;
+                
+                /* Wait for the writer to finish before reading. */
+                WatchKey key;
+                
+                while ((key = watcher.poll(settleMillis, TimeUnit.MILLISECONDS)) != null)
+                    changed(key);
+                
+                StructuredProperties properties;
+                Error error = null;
+                
+                try {
+                    properties = reload();
+                } catch (Error e) {
+                    properties = null;
+                    error = e;
+                } catch (RuntimeException e) {
+                    properties = null;
+                    error = new Error("Unable to read configuration: " + e, e);
+                }
+                
+                Listener l = listener;
+                
+                if (l == null)
+                    continue;
+                
+                /* A Listener that throws must not stop the watching. */
+                try {
+                    if (error != null)
+                        l.failed(error);
+                    else
+                        l.reloaded(properties);
+                } catch (RuntimeException e) {
+                    Thread watching = Thread.currentThread();
+                    
+                    watching.getUncaughtExceptionHandler().uncaughtException(watching, e);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            /* close() was called. */
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Consumes the events on key and returns whether any were for our file. */
+    private boolean changed(WatchKey key) {
+        boolean ours = false;
+        
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                ours = true;
+            else if (configFile.getName().equals(event.context().toString()))
+                ours = true;
+        }
+        
+        key.reset();
+        return ours;
+    }
+}
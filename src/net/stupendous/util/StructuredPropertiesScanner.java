@@ -0,0 +1,38 @@
+/* File: StructuredPropertiesScanner.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.IOException;
+
+/**
+ * A source of symbols for the StructuredPropertiesParser.
+ * <p>
+ * Both the JFlex generated StructuredPropertiesLexer and the hand written
+ * StructuredPropertiesByteLexer implement this interface, and produce the
+ * same symbols for the same input.
+ */
+public interface StructuredPropertiesScanner {
+    /**
+     * Returns the next symbol in the input, or null once the end of the
+     * input has been reached.
+     * 
+     * @return StructuredPropertiesSymbol
+     * @throws IOException
+     */
+    public StructuredPropertiesSymbol scan() throws IOException;
+}
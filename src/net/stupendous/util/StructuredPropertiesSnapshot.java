@@ -0,0 +1,132 @@
+/* File: StructuredPropertiesSnapshot.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One complete, loaded version of a configuration.
+ * <p>
+ * Loading a configuration builds its tree, line numbers and index off to
+ * the side, and only then publishes them together as a new snapshot, so a
+ * StructuredProperties may be read by any number of threads while another
+ * thread loads it again. Each read sees either the old version or the new
+ * one, never a mixture. To read several properties from the same version,
+ * take the snapshot once and read them all from it:
+ * <pre>
+ * StructuredPropertiesSnapshot s = c.getSnapshot();
+ * Object host = HOST.resolve(s.getRoot());
+ * Object port = PORT.resolve(s.getRoot());
+ * </pre>
+ * A snapshot never changes what it holds, and may be shared between
+ * threads without locking. If the configuration was loaded frozen, the
+ * tree itself cannot be changed either; otherwise it is made of HashMaps
+ * and ArrayLists that nothing stops you changing, and then it is up to
+ * you to do so safely.
+ * 
+ * @see StructuredProperties#getSnapshot()
+ */
+public final class StructuredPropertiesSnapshot {
+    private final Map<String, Object> root;
+    private final StructuredPropertiesLines lines;
+    private final StructuredPropertiesEntries entries;
+    private final StructuredPropertiesIndex index;
+    
+    StructuredPropertiesSnapshot(Map<String, Object> root, StructuredPropertiesLines lines, 
+            StructuredPropertiesEntries entries, StructuredPropertiesIndex index) {
+        this.root = root;
+        this.lines = lines;
+        this.entries = entries;
+        this.index = index;
+    }
+
+    /**
+     * Returns the root of the configuration, or null if nothing has been
+     * loaded.
+     * 
+     * @return Map
+     */
+    
+    public Map<String, Object> getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the line of the configuration file that the entry at path in
+     * this version of the tree came from, or -1 if it is not known.
+     * 
+     * @param path
+     * @return int
+     */
+    
+    public int getLine(StructuredPropertiesPath path) {
+        if (path.size() == 0)
+            return -1;
+        
+        return getLine(path.parent(root), path.get(path.size() - 1));
+    }
+
+    /**
+     * Returns the line of the configuration file that the entry for key in
+     * a map of this version of the tree came from, or -1 if it is not known.
+     * 
+     * @param map
+     * @param key
+     * @return int
+     */
+    
+    public int getLine(Map<?, ?> map, String key) {
+        return lines == null ? -1 : lines.get(map, key);
+    }
+
+    /**
+     * Returns the line of the configuration file that the entry at index in
+     * a list of this version of the tree came from, or -1 if it is not
+     * known.
+     * 
+     * @param list
+     * @param index
+     * @return int
+     */
+    
+    public int getLine(List<?> list, int index) {
+        return lines == null ? -1 : lines.get(list, index);
+    }
+
+    /**
+     * Returns the index of every path in this version of the configuration,
+     * or null unless the options ask for one to be built.
+     * 
+     * @return StructuredPropertiesIndex
+     */
+    
+    public StructuredPropertiesIndex getIndex() {
+        return index;
+    }
+    
+    /* The line numbers, for an incremental reload to carry over. */
+    StructuredPropertiesLines getLines() {
+        return lines;
+    }
+    
+    /* The top-level entries, kept when the options are incremental. */
+    StructuredPropertiesEntries getEntries() {
+        return entries;
+    }
+}
@@ -23,6 +23,7 @@ public class StructuredPropertiesSymbol {
         BLOCK_START,
         BLOCK_END,
         EQUALS,
+        INCLUDE,
         EOF,
         ERROR,
         UNSET
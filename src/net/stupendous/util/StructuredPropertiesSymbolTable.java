@@ -0,0 +1,296 @@
+/* File: StructuredPropertiesSymbolTable.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A table of the key strings seen while lexing, so that every occurrence of
+ * the same identifier in a configuration shares a single String.
+ * <p>
+ * A configuration with thousands of repeated blocks, each containing the
+ * same few keys, would otherwise allocate a new String for every one. The
+ * lexers look identifiers up here directly from their input buffers, so a
+ * key that has been seen before costs no allocation at all.
+ * <p>
+ * Each String's hash code is computed when it is added to the table. As
+ * String caches its hash, every later HashMap insertion or lookup with an
+ * interned key skips hashing entirely.
+ * <p>
+ * By default every parse uses its own table. A table may also be shared
+ * between any number of StructuredProperties instances, on any number of
+ * threads, through StructuredPropertiesOptions.setSymbolTable(). Once it
+ * holds its maximum number of strings it stops growing, and new identifiers
+ * are simply returned without being shared.
+ * 
+ * @see StructuredPropertiesOptions#setSymbolTable(StructuredPropertiesSymbolTable)
+ */
+public class StructuredPropertiesSymbolTable {
+    private static final int DEFAULT_MAX_SIZE               = 65536;
+    
+    /* The most slots clear() keeps, rather than starting small again. */
+    private static final int MAX_KEPT_CAPACITY              = 4096;
+    
+    /* Read without a lock, so it is only ever replaced by a complete
+     * table. A String's hash is cached in the String itself, and its
+     * fields are final, so a String seen here is always whole.
+     */
+    private volatile String[] strings                       = new String[64];
+    private int size                                        = 0;
+    private int maxSize                                     = DEFAULT_MAX_SIZE;
+
+    /**
+     * Creates a table that holds up to 65536 strings.
+     */
+    
+    public StructuredPropertiesSymbolTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a table that holds up to maxSize strings.
+     * 
+     * @param maxSize
+     */
+    
+    public StructuredPropertiesSymbolTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Returns the number of strings in the table.
+     * 
+     * @return int
+     */
+    
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes every string from the table, so that it can be used again
+     * for another configuration without sharing its strings with the last.
+     */
+    
+    public synchronized void clear() {
+        if (strings.length > MAX_KEPT_CAPACITY)
+            strings = new String[64];
+        else
+            Arrays.fill(strings, null);
+        
+        size = 0;
+    }
+
+    /**
+     * Returns the shared String equal to the given characters. A String
+     * already in the table is found without taking a lock, so any number
+     * of threads can look strings up at once; only adding one locks.
+     * 
+     * @param chars
+     * @param offset
+     * @param length
+     * @return String
+     */
+    
+    public String intern(char[] chars, int offset, int length) {
+        int h = 0;
+        
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + chars[i];
+        
+        String s = find(strings, h, chars, offset, length);
+        
+        if (s != null)
+            return s;
+        
+        synchronized (this) {
+            int slot = slot(h, chars, offset, length);
+            
+            if (strings[slot] != null)
+                return strings[slot];
+            
+            return add(new String(chars, offset, length), slot);
+        }
+    }
+
+    /**
+     * Returns the shared String equal to the ASCII bytes from start to end
+     * of the buffer. Like intern(char[], int, int), it only locks to add
+     * a String.
+     * 
+     * @param bytes
+     * @param start
+     * @param end
+     * @return String
+     */
+    
+    public String intern(ByteBuffer bytes, int start, int end) {
+        int h = 0;
+        
+        for (int i = start; i < end; i++)
+            h = 31 * h + (bytes.get(i) & 0xff);
+        
+        String s = find(strings, h, bytes, start, end);
+        
+        if (s != null)
+            return s;
+        
+        synchronized (this) {
+            int slot = slot(h, bytes, start, end);
+            
+            if (strings[slot] != null)
+                return strings[slot];
+            
+            char[] chars = new char[end - start];
+            
+            for (int i = start; i < end; i++)
+                chars[i - start] = (char) (bytes.get(i) & 0xff);
+            
+            return add(new String(chars), slot);
+        }
+    }
+    
+    /* Looks a string up without the lock. h is the string's String hash,
+     * which every String in the table has cached.
+     */
+    private static String find(String[] strings, int h, char[] chars, int offset, int length) {
+        int mask = strings.length - 1;
+        
+        for (int slot = spread(h) & mask; strings[slot] != null; slot = (slot + 1) & mask) {
+            String s = strings[slot];
+            
+            if (s != null && s.hashCode() == h && matches(s, chars, offset, length))
+                return s;
+        }
+        
+        return null;
+    }
+    
+    private static String find(String[] strings, int h, ByteBuffer bytes, int start, int end) {
+        int mask = strings.length - 1;
+        
+        for (int slot = spread(h) & mask; strings[slot] != null; slot = (slot + 1) & mask) {
+            String s = strings[slot];
+            
+            if (s != null && s.hashCode() == h && matches(s, bytes, start, end))
+                return s;
+        }
+        
+        return null;
+    }
+    
+    /* Finds the slot holding the string, or the empty slot where it
+     * belongs, with the lock held.
+     */
+    private int slot(int h, char[] chars, int offset, int length) {
+        int mask = strings.length - 1;
+        int slot = spread(h) & mask;
+        
+        for (String s = strings[slot]; s != null; s = strings[slot]) {
+            if (s.hashCode() == h && matches(s, chars, offset, length))
+                return slot;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+    
+    private int slot(int h, ByteBuffer bytes, int start, int end) {
+        int mask = strings.length - 1;
+        int slot = spread(h) & mask;
+        
+        for (String s = strings[slot]; s != null; s = strings[slot]) {
+            if (s.hashCode() == h && matches(s, bytes, start, end))
+                return slot;
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+    
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+    
+    private static boolean matches(String s, char[] chars, int offset, int length) {
+        if (s.length() != length)
+            return false;
+        
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[offset + i])
+                return false;
+        }
+        
+        return true;
+    }
+    
+    private static boolean matches(String s, ByteBuffer bytes, int start, int end) {
+        if (s.length() != end - start)
+            return false;
+        
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i - start) != (bytes.get(i) & 0xff))
+                return false;
+        }
+        
+        return true;
+    }
+    
+    private String add(String s, int slot) {
+        if (size >= maxSize)
+            return s;
+        
+        /* Computes and caches the String's own hash code now. */
+        s.hashCode();
+        
+        strings[slot] = s;
+        size++;
+        
+        /* Keep the table at most half full. */
+        if (size * 2 > strings.length)
+            grow();
+        
+        return s;
+    }
+    
+    /* Fills a new table before publishing it, for the lookups that do not
+     * lock.
+     */
+    private void grow() {
+        String[] oldStrings = strings;
+        String[] newStrings = new String[oldStrings.length * 2];
+        int mask = newStrings.length - 1;
+        
+        for (int i = 0; i < oldStrings.length; i++) {
+            if (oldStrings[i] == null)
+                continue;
+            
+            int slot = spread(oldStrings[i].hashCode()) & mask;
+            
+            while (newStrings[slot] != null)
+                slot = (slot + 1) & mask;
+            
+            newStrings[slot] = oldStrings[i];
+        }
+        
+        strings = newStrings;
+    }
+}
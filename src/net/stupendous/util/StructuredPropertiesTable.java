@@ -0,0 +1,383 @@
+/* File: StructuredPropertiesTable.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact, immutable table, used in a frozen configuration for a list of
+ * lists of strings that all have the same number of entries, such as:
+ * <pre>
+ * users {
+ *     { "ID"      "Name"      "Description"                   }
+ *     { 1         "peter"     "friend of a friend"            }
+ *     { 5         "paul"      "Some guy I used to know"       }
+ * }
+ * </pre>
+ * The first row is taken to be the names of the columns. The rest are held
+ * column by column rather than as a List for every row: a column in which
+ * every entry is an int, a long or a double is held as an array of that
+ * primitive, and any other column as an array of its Strings. A column is
+ * only held as numbers if every entry converts back to exactly the String
+ * it came from, so "007" or "1.50" keep the column as Strings.
+ * <p>
+ * The table is still a List of Lists, equal to the one it replaces, so
+ * code that walks the tree does not need to know about it; but reading it
+ * that way creates the Lists and Strings of the rows it reads. The row and
+ * column accessors read the columns directly. Their row numbers count the
+ * rows below the names of the columns from 0:
+ * <pre>
+ * StructuredPropertiesTable users = (StructuredPropertiesTable) c.getProperty("users");
+ * int name = users.getColumnIndex("Name");
+ * 
+ * for (int row = 0; row &lt; users.getRowCount(); row++)
+ *     System.out.println(users.getInt(row, 0) + " " + users.getString(row, name));
+ * </pre>
+ * Any attempt to modify the table throws UnsupportedOperationException.
+ * 
+ * @see StructuredPropertiesOptions#setColumnar(boolean)
+ */
+public final class StructuredPropertiesTable extends AbstractList<Object> implements RandomAccess {
+    private final String[] header;
+    private final int rows;
+    
+    /* An int[], long[], double[] or String[] of each column. */
+    private final Object[] columns;
+
+    /**
+     * Creates a table from the cells of rows rows of width entries each, the
+     * first of which is the header, in entries[start] onwards.
+     */
+    
+    StructuredPropertiesTable(Object[] entries, int start, int rows, int width) {
+        this.header = new String[width];
+        this.rows = rows - 1;
+        this.columns = new Object[width];
+        
+        for (int c = 0; c < width; c++) {
+            header[c] = (String) entries[start + c];
+            columns[c] = column(entries, start + width + c, this.rows, width);
+        }
+    }
+    
+    /* Reads the column whose first cell is entries[first], as the narrowest
+     * kind that holds all of its cells exactly.
+     */
+    private static Object column(Object[] entries, int first, int rows, int width) {
+        boolean ints = true;
+        boolean longs = true;
+        boolean doubles = true;
+        
+        for (int r = 0; r < rows && (longs || doubles); r++) {
+            String s = (String) entries[first + r * width];
+            
+            if (longs) {
+                try {
+                    long l = Long.parseLong(s);
+                    
+                    longs = Long.toString(l).equals(s);
+                    ints = ints && l == (int) l;
+                } catch (NumberFormatException e) {
+                    longs = false;
+                }
+                
+                ints = ints && longs;
+            }
+            
+            if (doubles) {
+                try {
+                    doubles = Double.toString(Double.parseDouble(s)).equals(s);
+                } catch (NumberFormatException e) {
+                    doubles = false;
+                }
+            }
+        }
+        
+        if (ints) {
+            int[] column = new int[rows];
+            
+            for (int r = 0; r < rows; r++)
+                column[r] = Integer.parseInt((String) entries[first + r * width]);
+            
+            return column;
+        }
+        
+        if (longs) {
+            long[] column = new long[rows];
+            
+            for (int r = 0; r < rows; r++)
+                column[r] = Long.parseLong((String) entries[first + r * width]);
+            
+            return column;
+        }
+        
+        if (doubles) {
+            double[] column = new double[rows];
+            
+            for (int r = 0; r < rows; r++)
+                column[r] = Double.parseDouble((String) entries[first + r * width]);
+            
+            return column;
+        }
+        
+        String[] column = new String[rows];
+        
+        for (int r = 0; r < rows; r++)
+            column[r] = (String) entries[first + r * width];
+        
+        return column;
+    }
+
+    /**
+     * Returns the number of rows below the names of the columns.
+     * 
+     * @return int
+     */
+    
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     * 
+     * @return int
+     */
+    
+    public int getColumnCount() {
+        return header.length;
+    }
+
+    /**
+     * Returns the name of the given column, from the first row.
+     * 
+     * @param column
+     * @return String
+     */
+    
+    public String getColumnName(int column) {
+        return header[column];
+    }
+
+    /**
+     * Returns the column with the given name, or -1 if there is none. If
+     * two columns have the name, it is the first of them.
+     * 
+     * @param name
+     * @return int
+     */
+    
+    public int getColumnIndex(String name) {
+        for (int c = 0; c < header.length; c++) {
+            if (header[c].equals(name))
+                return c;
+        }
+        
+        return -1;
+    }
+
+    /**
+     * Returns the type the given column is held as: int.class, long.class,
+     * double.class or String.class.
+     * 
+     * @param column
+     * @return Class
+     */
+    
+    public Class<?> getColumnType(int column) {
+        Object values = columns[column];
+        
+        if (values instanceof int[])
+            return int.class;
+        if (values instanceof long[])
+            return long.class;
+        if (values instanceof double[])
+            return double.class;
+        
+        return String.class;
+    }
+    
+    /* Whether the given column no longer holds the Strings of the file. */
+    boolean isTyped(int column) {
+        return !(columns[column] instanceof String[]);
+    }
+
+    /**
+     * Returns the entry at the given row and column as a String, exactly as
+     * it was in the file.
+     * 
+     * @param row
+     * @param column
+     * @return String
+     */
+    
+    public String getString(int row, int column) {
+        checkRow(row);
+        
+        Object values = columns[column];
+        
+        if (values instanceof int[])
+            return Integer.toString(((int[]) values)[row]);
+        if (values instanceof long[])
+            return Long.toString(((long[]) values)[row]);
+        if (values instanceof double[])
+            return Double.toString(((double[]) values)[row]);
+        
+        return ((String[]) values)[row];
+    }
+
+    /**
+     * Returns the entry at the given row and column as an int.
+     * 
+     * @param row
+     * @param column
+     * @return int
+     * @throws Error if the entry is not an int.
+     */
+    
+    public int getInt(int row, int column) throws Error {
+        Object values = columns[column];
+        
+        if (values instanceof int[]) {
+            checkRow(row);
+            return ((int[]) values)[row];
+        }
+        
+        return (int) convert(row, column, StructuredPropertiesValues.INT);
+    }
+
+    /**
+     * Returns the entry at the given row and column as a long.
+     * 
+     * @param row
+     * @param column
+     * @return long
+     * @throws Error if the entry is not a long.
+     */
+    
+    public long getLong(int row, int column) throws Error {
+        Object values = columns[column];
+        
+        checkRow(row);
+        
+        if (values instanceof long[])
+            return ((long[]) values)[row];
+        if (values instanceof int[])
+            return ((int[]) values)[row];
+        
+        return convert(row, column, StructuredPropertiesValues.LONG);
+    }
+
+    /**
+     * Returns the entry at the given row and column as a double.
+     * 
+     * @param row
+     * @param column
+     * @return double
+     * @throws Error if the entry is not a double.
+     */
+    
+    public double getDouble(int row, int column) throws Error {
+        Object values = columns[column];
+        
+        checkRow(row);
+        
+        if (values instanceof double[])
+            return ((double[]) values)[row];
+        if (values instanceof long[])
+            return ((long[]) values)[row];
+        if (values instanceof int[])
+            return ((int[]) values)[row];
+        
+        return Double.longBitsToDouble(convert(row, column, StructuredPropertiesValues.DOUBLE));
+    }
+    
+    private long convert(int row, int column, int kind) throws Error {
+        String s = getString(row, column);
+        
+        try {
+            return StructuredPropertiesValues.parse(kind, s);
+        } catch (IllegalArgumentException e) {
+            throw new Error(String.format("Configuration error: row %d of column %s is \"%s\", expected %s.", 
+                    row, header[column], s, e.getMessage()));
+        }
+    }
+    
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + rows);
+    }
+
+    /**
+     * Returns the given row as a List of Strings. The List reads the
+     * columns as it is used, so it costs nothing to make.
+     * 
+     * @param row
+     * @return List
+     */
+    
+    public List<Object> getRow(final int row) {
+        checkRow(row);
+        
+        return new Row() {
+            @Override
+            public Object get(int column) {
+                return getString(row, column);
+            }
+        };
+    }
+
+    /**
+     * Returns the names of the columns, from the first row.
+     * 
+     * @return List
+     */
+    
+    public List<Object> getHeader() {
+        return new Row() {
+            @Override
+            public Object get(int column) {
+                return header[column];
+            }
+        };
+    }
+    
+    private abstract class Row extends AbstractList<Object> implements RandomAccess {
+        @Override
+        public int size() {
+            return header.length;
+        }
+    }
+
+    /**
+     * Returns the names of the columns for index 0, as in the file, and
+     * row index - 1 for any other index.
+     */
+    
+    @Override
+    public Object get(int index) {
+        return index == 0 ? getHeader() : getRow(index - 1);
+    }
+
+    @Override
+    public int size() {
+        return rows + 1;
+    }
+}
@@ -0,0 +1,206 @@
+/* File: StructuredPropertiesTokens.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.stupendous.util.StructuredPropertiesSymbol.Type;
+
+/**
+ * The symbols the StructuredPropertiesParser has read from its scanner but
+ * not yet finished with: the current one and those it has looked ahead at.
+ * <p>
+ * They are held in a small ring of parallel arrays, a type, a line and an
+ * extent in the input for each, rather than as StructuredPropertiesSymbol
+ * objects, so reading a symbol allocates nothing. Read from a
+ * StructuredPropertiesByteLexer, a string is only decoded when the parser
+ * asks for its value. Any other scanner still produces symbol objects,
+ * and only their types, lines and values are kept.
+ */
+final class StructuredPropertiesTokens {
+    /* Room for the current symbol and the parser's lookahead. */
+    private static final int CAPACITY                       = 4;
+    private static final int MASK                           = CAPACITY - 1;
+    
+    /* The text the lexers give every symbol that is not a STRING. */
+    private static final String[] TEXTS                     = new String[Type.values().length];
+    
+    static {
+        TEXTS[Type.BLOCK_START.ordinal()] = "{";
+        TEXTS[Type.BLOCK_END.ordinal()] = "}";
+        TEXTS[Type.EQUALS.ordinal()] = "=";
+        TEXTS[Type.INCLUDE.ordinal()] = "@include";
+    }
+    
+    private final Type[] types                              = new Type[CAPACITY];
+    private final int[] lines                               = new int[CAPACITY];
+    private final int[] starts                              = new int[CAPACITY];
+    private final int[] ends                                = new int[CAPACITY];
+    private final byte[] forms                              = new byte[CAPACITY];
+    private final String[] values                           = new String[CAPACITY];
+    private int first                                       = 0;
+    private int count                                       = 0;
+    private int read                                        = 0;
+    private boolean finished                                = false;
+    
+    private StructuredPropertiesScanner scanner             = null;
+    private StructuredPropertiesByteLexer lexer             = null;
+    private StructuredPropertiesTrace trace                 = null;
+    
+    /**
+     * Starts reading symbols from scanner, recording each one in trace if
+     * it is not null, and reads the first.
+     */
+    
+    void start(StructuredPropertiesScanner scanner, StructuredPropertiesTrace trace) throws Error {
+        clear();
+        this.scanner = scanner;
+        this.lexer = scanner instanceof StructuredPropertiesByteLexer ? (StructuredPropertiesByteLexer) scanner : null;
+        this.trace = trace;
+        read((first + count++) & MASK);
+    }
+    
+    /**
+     * Forgets the scanner and every symbol.
+     */
+    
+    void clear() {
+        Arrays.fill(types, null);
+        Arrays.fill(values, null);
+        first = 0;
+        count = 0;
+        read = 0;
+        finished = false;
+        scanner = null;
+        lexer = null;
+        trace = null;
+    }
+    
+    /**
+     * Returns the number of symbols read since start(), including every EOF.
+     */
+    
+    int getCount() {
+        return read;
+    }
+    
+    Type type(int distance) throws Error {
+        return types[slot(distance)];
+    }
+    
+    int line(int distance) throws Error {
+        return lines[slot(distance)];
+    }
+    
+    String value(int distance) throws Error {
+        return decode(slot(distance));
+    }
+    
+    /**
+     * Moves on to the next symbol, and reads it.
+     */
+    
+    void next() throws Error {
+        values[first] = null;
+        first = (first + 1) & MASK;
+        
+        if (--count == 0)
+            read((first + count++) & MASK);
+    }
+    
+    /* Returns where the symbol distance after the current one is held,
+     * reading it first if need be.
+     */
+    private int slot(int distance) throws Error {
+        assert (distance < CAPACITY) : distance;
+        
+        /* The current symbol is always read by start() and next(). */
+        if (distance == 0)
+            return first;
+        
+        while (count <= distance)
+            read((first + count++) & MASK);
+        
+        return (first + distance) & MASK;
+    }
+    
+    private void read(int i) throws Error {
+        Type type;
+        
+        read++;
+        values[i] = null;
+        
+        if (finished) {
+            type = Type.EOF;
+            lines[i] = 0;
+        } else if (lexer != null) {
+            type = lexer.next();
+            lines[i] = type == Type.EOF ? 0 : lexer.getTokenLine();
+            
+            if (type == Type.STRING) {
+                starts[i] = lexer.getValueStart();
+                ends[i] = lexer.getValueEnd();
+                forms[i] = (byte) lexer.getValueForm();
+            }
+        } else {
+            type = scan(i);
+        }
+        
+        if (type == Type.EOF)
+            finished = true;
+        
+        types[i] = type;
+        
+        if (trace != null)
+            trace.symbol(type, decode(i), lines[i]);
+    }
+    
+    /* Reads a symbol from a scanner other than the byte lexer. */
+    private Type scan(int i) throws Error {
+        StructuredPropertiesSymbol symbol = null;
+        
+        try {
+            symbol = scanner.scan();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        
+        if (symbol == null || symbol.type == Type.EOF) {
+            lines[i] = 0;
+            return Type.EOF;
+        }
+        
+        lines[i] = symbol.line;
+        values[i] = symbol.object;
+        return symbol.type;
+    }
+    
+    /* Decodes a string from the byte lexer the first time it is asked for. */
+    private String decode(int i) {
+        if (values[i] != null || lexer == null)
+            return values[i];
+        
+        if (types[i] == Type.STRING)
+            values[i] = lexer.value(forms[i], starts[i], ends[i]);
+        else if (types[i] != Type.EOF)
+            values[i] = TEXTS[types[i].ordinal()];
+        
+        return values[i];
+    }
+}
@@ -0,0 +1,161 @@
+/* File: StructuredPropertiesTrace.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+/**
+ * A record of the last few things a StructuredPropertiesParser did: the
+ * symbols it read from the lexer and the decisions it made about them,
+ * such as whether a block is a map or a list.
+ * <p>
+ * The events are kept in a ring buffer of a fixed size, so a trace costs
+ * the same however large the configuration is, and recording an event is
+ * a few array stores with no allocation. When a parse fails, the trace is
+ * attached to the Error as a suppressed exception, so it appears with the
+ * stack trace wherever the Error is logged:
+ * <pre>
+ * StructuredPropertiesOptions o = new StructuredPropertiesOptions();
+ * o.setTraceSize(64);
+ * StructuredProperties c = new StructuredProperties(f, o);
+ * </pre>
+ * A trace belongs to one parser, and is not safe to share between
+ * parsers running at the same time.
+ */
+public final class StructuredPropertiesTrace {
+    /* The kind of an event that is a decision rather than a symbol. */
+    private static final int DECISION                       = -1;
+    
+    private final int mask;
+    private final int[] kinds;
+    private final int[] lines;
+    private final String[] texts;
+    private long count                                      = 0;
+
+    /**
+     * Creates a trace that remembers at least the given number of the most
+     * recent events.
+     * 
+     * @param size
+     */
+    
+    public StructuredPropertiesTrace(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+        
+        this.mask = capacity - 1;
+        this.kinds = new int[capacity];
+        this.lines = new int[capacity];
+        this.texts = new String[capacity];
+    }
+
+    /**
+     * Records a symbol read from the lexer.
+     * 
+     * @param type
+     * @param text
+     * @param line
+     */
+    
+    void symbol(StructuredPropertiesSymbol.Type type, String text, int line) {
+        int i = (int) (count++ & mask);
+        
+        kinds[i] = type.ordinal();
+        lines[i] = line;
+        texts[i] = text;
+    }
+
+    /**
+     * Records a decision made by the parser. The description should be a
+     * constant, so that recording it does not allocate.
+     * 
+     * @param description
+     * @param line
+     */
+    
+    void decision(String description, int line) {
+        int i = (int) (count++ & mask);
+        
+        kinds[i] = DECISION;
+        lines[i] = line;
+        texts[i] = description;
+    }
+
+    /**
+     * Forgets every event.
+     */
+    
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Returns the number of events recorded since the trace was created or
+     * cleared, including those no longer remembered.
+     * 
+     * @return long
+     */
+    
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the events remembered, oldest first, one per line.
+     * 
+     * @return String
+     */
+    
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        long first = Math.max(0, count - kinds.length);
+        
+        for (long n = first; n < count; n++) {
+            int i = (int) (n & mask);
+            
+            out.append(String.format("%6d  line %-5d ", n, lines[i]));
+            
+            if (kinds[i] == DECISION)
+                out.append("-> ").append(texts[i]);
+            else
+                out.append(StructuredPropertiesSymbol.Type.values()[kinds[i]]).append(" [").append(texts[i]).append(']');
+            
+            out.append('\n');
+        }
+        
+        return out.toString();
+    }
+
+    /**
+     * Returns the trace as a Throwable, to be attached to the Error for a
+     * failed parse.
+     * 
+     * @return Error
+     */
+    
+    Error failure() {
+        return new Dump("Parser trace, last " + Math.min(count, kinds.length) + " of " + count + " events:\n" + this);
+    }
+    
+    /* Carries a trace; its own stack trace would say nothing useful. */
+    private static final class Dump extends Error {
+        private static final long serialVersionUID          = 1L;
+        
+        Dump(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/* File: StructuredPropertiesTreeBuilder.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StructuredPropertiesHandler that builds the tree of Maps, Lists and
+ * Strings returned by StructuredProperties.getRoot().
+ * <p>
+ * By default blocks become java.util.HashMaps and java.util.ArrayLists. A
+ * frozen builder instead collects the entries of each block until it ends
+ * and then creates an immutable StructuredPropertiesMap or
+ * StructuredPropertiesList of exactly the right size. If it is also
+ * columnar, a list of rows of strings that are all the same width becomes
+ * a StructuredPropertiesTable instead, and the rows themselves are never
+ * created.
+ * 
+ * @see StructuredPropertiesHandler
+ */
+public class StructuredPropertiesTreeBuilder implements StructuredPropertiesHandler {
+    private boolean frozen                                  = false;
+    private boolean columnar                                = false;
+    private StructuredPropertiesIncludeCache includes       = null;
+    private File directory                                  = null;
+    private Map<String, Object> root                        = null;
+    private ArrayList<Object> blocks                        = new ArrayList<Object>();
+    private String key                                      = null;
+    private StructuredPropertiesLines lines                 = null;
+    
+    /* Used when frozen: the entries of every open block, one after the
+     * other, with their lines when they are tracked, and where each open
+     * block's entries start.
+     */
+    private Object[] entries                                = new Object[64];
+    private int[] entryLines                                = new int[64];
+    private int entryCount                                  = 0;
+    private int[] blockStarts                               = new int[16];
+    private boolean[] blockIsMap                            = new boolean[16];
+    private int[] blockLines                                = new int[16];
+    private int depth                                       = 0;
+    
+    /* Used when columnar: the number of rows held flat as the entries of
+     * every open list, and their width, or -1 once the list has anything
+     * else in it. The lines of the rows are kept one after the other.
+     */
+    private int[] blockRows                                 = new int[16];
+    private int[] blockWidths                               = new int[16];
+    private int[] rowLines                                  = new int[16];
+    private int rowCount                                    = 0;
+    
+    /* The keys, values and lines of the root in file order, duplicates
+     * included, when they are being recorded.
+     */
+    private ArrayList<Object> rootEntries                   = null;
+
+    /**
+     * Creates a builder that produces HashMaps and ArrayLists.
+     */
+    
+    public StructuredPropertiesTreeBuilder() {
+        this(false);
+    }
+    
+    /**
+     * Creates a builder that produces HashMaps and ArrayLists, or when
+     * frozen is set, StructuredPropertiesMaps and StructuredPropertiesLists.
+     * 
+     * @param frozen
+     */
+    
+    public StructuredPropertiesTreeBuilder(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    /**
+     * Makes @include directives add the entries of the file they name, as
+     * read through includes, to the map they are in; relative paths are
+     * resolved against directory, or if that is null, the working
+     * directory. Included entries have the line of the @include, and
+     * nothing inside them has a line number. A frozen builder
+     * shares them with every configuration that includes the same file;
+     * otherwise they are copied into HashMaps and ArrayLists like the rest
+     * of the tree. By default includes are an error. The lexer must be
+     * told to read them too, with setIncludes(true).
+     * 
+     * @param includes
+     * @param directory
+     */
+    
+    public void setIncludes(StructuredPropertiesIncludeCache includes, File directory) {
+        this.includes = includes;
+        this.directory = directory;
+    }
+    
+    /**
+     * Turns tables on or off for a frozen builder; they are off by default.
+     * A list of two or more lists of strings, all of the same width, then
+     * becomes a StructuredPropertiesTable. Each of its rows has a line
+     * number, but the strings in them do not.
+     * 
+     * @param columnar
+     */
+    
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+    
+    /**
+     * Turns the recording of line numbers on or off. It is off by default.
+     * 
+     * @param lineTracking
+     */
+    
+    public void setLineTracking(boolean lineTracking) {
+        lines = lineTracking ? new StructuredPropertiesLines() : null;
+    }
+    
+    /**
+     * Returns the line that the entry for key in a map of the tree came
+     * from, or -1 if it is not known.
+     * 
+     * @param map
+     * @param key
+     * @return int
+     */
+    
+    public int getLine(Map<?, ?> map, String key) {
+        return lines == null ? -1 : lines.get(map, key);
+    }
+    
+    /**
+     * Returns the line that the entry at index in a list of the tree came
+     * from, or -1 if it is not known.
+     * 
+     * @param list
+     * @param index
+     * @return int
+     */
+    
+    public int getLine(List<?> list, int index) {
+        return lines == null ? -1 : lines.get(list, index);
+    }
+    
+    /* The line numbers, or null if line tracking is turned off. */
+    StructuredPropertiesLines getLines() {
+        return lines;
+    }
+
+    /**
+     * Turns on the recording of the keys and values of the root, in the
+     * order they appear and including any that a later duplicate key
+     * replaces, each followed by its line. This lets the roots of separately
+     * parsed parts of a configuration be joined into exactly the root a
+     * single parse gives. The lines of the root are then only recorded here.
+     */
+    
+    void setRecordingRootEntries(boolean recording) {
+        rootEntries = recording ? new ArrayList<Object>() : null;
+    }
+    
+    /**
+     * Returns the keys, values and lines of the root, one after the other,
+     * or null if they were not recorded.
+     * 
+     * @return ArrayList
+     */
+    
+    ArrayList<Object> getRootEntries() {
+        return rootEntries;
+    }
+
+    /**
+     * Returns the root Map once the parser has finished, or null if
+     * nothing has been parsed yet.
+     * 
+     * @return Map
+     */
+    
+    public Map<String, Object> getRoot() {
+        return root;
+    }
+
+    public void startMap(int line) {
+        if (frozen) {
+            startFrozen(true, line);
+            return;
+        }
+        
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        
+        if (blocks.isEmpty())
+            root = map;
+        else
+            add(map, line);
+        
+        blocks.add(map);
+    }
+
+    public void startList(int line) {
+        if (frozen) {
+            startFrozen(false, line);
+            return;
+        }
+        
+        ArrayList<Object> list = new ArrayList<Object>();
+        
+        add(list, line);
+        blocks.add(list);
+    }
+
+    public void key(String key, int line) {
+        if (frozen)
+            addFrozen(key, line);
+        else
+            this.key = key;
+    }
+
+    public void value(String value, int line) {
+        if (frozen)
+            addFrozen(value, line);
+        else
+            add(value, line);
+    }
+
+    public void include(String path, int line) {
+        if (includes == null) {
+            StructuredPropertiesHandler.super.include(path, line);
+            return;
+        }
+        
+        File file = new File(path);
+        
+        if (!file.isAbsolute() && directory != null)
+            file = new File(directory, path);
+        
+        Map<String, Object> included;
+        
+        try {
+            included = includes.get(file);
+        } catch (Error e) {
+            if (!StructuredProperties.isConfigurationError(e))
+                throw e;
+            
+            throw new Error(String.format("Configuration error on line %d: unable to include \"%s\": %s", line, path, e.getMessage()), e);
+        }
+        
+        for (Map.Entry<String, Object> entry : included.entrySet()) {
+            key(entry.getKey(), line);
+            
+            if (frozen)
+                addFrozen(entry.getValue(), line);
+            else
+                add(thaw(entry.getValue()), line);
+        }
+    }
+    
+    /* Copies an included value, which is frozen, into HashMaps and
+     * ArrayLists. Blocks still to be filled are kept on a stack, with the
+     * block they are copied from, so any depth can be copied.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object thaw(Object value) {
+        Object copy = empty(value);
+        
+        if (copy == null)
+            return value;
+        
+        ArrayList<Object> stack = new ArrayList<Object>();
+        
+        stack.add(value);
+        stack.add(copy);
+        
+        while (!stack.isEmpty()) {
+            Object to = stack.remove(stack.size() - 1);
+            Object from = stack.remove(stack.size() - 1);
+            
+            if (from instanceof Map<?, ?>) {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) from).entrySet()) {
+                    Object child = empty(entry.getValue());
+                    
+                    ((HashMap<String, Object>) to).put(entry.getKey(), child == null ? entry.getValue() : child);
+                    
+                    if (child != null) {
+                        stack.add(entry.getValue());
+                        stack.add(child);
+                    }
+                }
+            } else {
+                for (Object entry : (List<Object>) from) {
+                    Object child = empty(entry);
+                    
+                    ((ArrayList<Object>) to).add(child == null ? entry : child);
+                    
+                    if (child != null) {
+                        stack.add(entry);
+                        stack.add(child);
+                    }
+                }
+            }
+        }
+        
+        return copy;
+    }
+    
+    /* An empty HashMap or ArrayList to copy a block into, or null if the
+     * value is not a block.
+     */
+    private static Object empty(Object value) {
+        if (value instanceof Map<?, ?>)
+            return new HashMap<String, Object>();
+        
+        if (value instanceof List<?>)
+            return new ArrayList<Object>();
+        
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void endBlock(int line) {
+        if (!frozen) {
+            blocks.remove(blocks.size() - 1);
+            return;
+        }
+        
+        depth--;
+        
+        int start = blockStarts[depth];
+        Object block;
+        
+        if (blockIsMap[depth]) {
+            block = new StructuredPropertiesMap(entries, start, entryCount);
+            
+            if (lines != null && (depth > 0 || rootEntries == null)) {
+                for (int i = start; i < entryCount; i += 2)
+                    lines.put(block, (String) entries[i], entryLines[i + 1]);
+            }
+        } else if (blockRows[depth] >= 2) {
+            block = table(start);
+        } else {
+            if (blockRows[depth] > 0)
+                unflatten(depth);
+            
+            if (isRow(start)) {
+                /* Leave the strings where they are, as a row of the list. */
+                addRow(entryCount - start, blockLines[depth]);
+                return;
+            }
+            
+            block = new StructuredPropertiesList(entries, start, entryCount);
+            
+            if (lines != null) {
+                for (int i = start; i < entryCount; i++)
+                    lines.put(block, i - start, entryLines[i]);
+            }
+        }
+        
+        if (depth == 0 && rootEntries != null) {
+            for (int i = start; i < entryCount; i += 2) {
+                rootEntries.add(entries[i]);
+                rootEntries.add(entries[i + 1]);
+                rootEntries.add(entryLines[i + 1]);
+            }
+        }
+        
+        Arrays.fill(entries, start, entryCount, null);
+        entryCount = start;
+        
+        if (depth == 0)
+            root = (Map<String, Object>) block;
+        else
+            addFrozen(block, blockLines[depth]);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void add(Object value, int line) {
+        Object block = blocks.get(blocks.size() - 1);
+        
+        if (block instanceof HashMap<?, ?>) {
+            if (rootEntries != null && blocks.size() == 1) {
+                rootEntries.add(key);
+                rootEntries.add(value);
+                rootEntries.add(line);
+            } else if (lines != null) {
+                lines.put(block, key, line);
+            }
+            
+            ((HashMap<String, Object>) block).put(key, value);
+            key = null;
+        } else {
+            if (lines != null)
+                lines.put(block, ((ArrayList<Object>) block).size(), line);
+            
+            ((ArrayList<Object>) block).add(value);
+        }
+    }
+    
+    private void startFrozen(boolean isMap, int line) {
+        if (depth == blockStarts.length) {
+            blockStarts = Arrays.copyOf(blockStarts, depth * 2);
+            blockIsMap = Arrays.copyOf(blockIsMap, depth * 2);
+            blockLines = Arrays.copyOf(blockLines, depth * 2);
+            blockRows = Arrays.copyOf(blockRows, depth * 2);
+            blockWidths = Arrays.copyOf(blockWidths, depth * 2);
+        }
+        
+        blockStarts[depth] = entryCount;
+        blockIsMap[depth] = isMap;
+        blockLines[depth] = line;
+        blockRows[depth] = isMap || !columnar ? -1 : 0;
+        depth++;
+    }
+    
+    /* Whether the block just ended, from start, is a row that fits the
+     * rows already held flat in the list it is in.
+     */
+    private boolean isRow(int start) {
+        if (depth == 0 || blockRows[depth - 1] < 0 || entryCount == start)
+            return false;
+        
+        if (blockRows[depth - 1] > 0 && blockWidths[depth - 1] != entryCount - start)
+            return false;
+        
+        for (int i = start; i < entryCount; i++) {
+            if (!(entries[i] instanceof String))
+                return false;
+        }
+        
+        return true;
+    }
+    
+    private void addRow(int width, int line) {
+        if (rowCount == rowLines.length)
+            rowLines = Arrays.copyOf(rowLines, rowCount * 2);
+        
+        rowLines[rowCount++] = line;
+        blockRows[depth - 1]++;
+        blockWidths[depth - 1] = width;
+    }
+    
+    /* Makes a table of the rows held flat in the list at depth. */
+    private Object table(int start) {
+        int rows = blockRows[depth];
+        int width = blockWidths[depth];
+        StructuredPropertiesTable table = new StructuredPropertiesTable(entries, start, rows, width);
+        
+        if (lines != null) {
+            for (int r = 0; r < rows; r++)
+                lines.put(table, r, rowLines[rowCount - rows + r]);
+        }
+        
+        rowCount -= rows;
+        return table;
+    }
+    
+    /* Turns the rows held flat in the list at d into lists of their own,
+     * as it has turned out not to be a table.
+     */
+    private void unflatten(int d) {
+        int start = blockStarts[d];
+        int rows = blockRows[d];
+        int width = blockWidths[d];
+        int end = start + rows * width;
+        
+        /* Row r is written over entry r, which is never after its cells. */
+        for (int r = 0; r < rows; r++) {
+            Object row = new StructuredPropertiesList(entries, start + r * width, start + (r + 1) * width);
+            
+            if (lines != null) {
+                for (int c = 0; c < width; c++)
+                    lines.put(row, c, entryLines[start + r * width + c]);
+            }
+            
+            entries[start + r] = row;
+            entryLines[start + r] = rowLines[rowCount - rows + r];
+        }
+        
+        Arrays.fill(entries, start + rows, end, null);
+        entryCount = start + rows;
+        rowCount -= rows;
+        blockRows[d] = -1;
+    }
+    
+    private void addFrozen(Object entry, int line) {
+        /* Anything but a row means the list is not a table after all. */
+        if (depth > 0 && blockRows[depth - 1] >= 0) {
+            if (blockRows[depth - 1] > 0)
+                unflatten(depth - 1);
+            
+            blockRows[depth - 1] = -1;
+        }
+        
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+            entryLines = Arrays.copyOf(entryLines, entryCount * 2);
+        }
+        
+        entryLines[entryCount] = line;
+        entries[entryCount++] = entry;
+    }
+}
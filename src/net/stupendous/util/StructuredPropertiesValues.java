@@ -0,0 +1,149 @@
+/* File: StructuredPropertiesValues.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+/**
+ * Conversions from configuration strings to primitive values, used by the
+ * typed accessors of StructuredProperties.
+ * <p>
+ * Every conversion returns its result packed into a long, so that it can
+ * be remembered without boxing, and throws IllegalArgumentException with a
+ * description of what was expected when the string does not convert.
+ */
+final class StructuredPropertiesValues {
+    static final int INT                                    = 1;
+    static final int LONG                                   = 2;
+    static final int DOUBLE                                 = 3;
+    static final int BOOLEAN                                = 4;
+    static final int DURATION                               = 5;
+    static final int BYTES                                  = 6;
+    
+    private StructuredPropertiesValues() {
+    }
+    
+    static String describe(int kind) {
+        switch (kind) {
+        case INT:       return "an int";
+        case LONG:      return "a long";
+        case DOUBLE:    return "a double";
+        case BOOLEAN:   return "a boolean (true/false, yes/no, on/off or 1/0)";
+        case DURATION:  return "a duration (such as 500ms, 30s, 5m, 2h or 1d)";
+        default:        return "a byte size (such as 512, 64k, 10MB or 2GiB)";
+        }
+    }
+    
+    static long parse(int kind, String s) throws IllegalArgumentException {
+        try {
+            switch (kind) {
+            case INT:       return Integer.parseInt(s);
+            case LONG:      return Long.parseLong(s);
+            case DOUBLE:    return Double.doubleToRawLongBits(Double.parseDouble(s));
+            case BOOLEAN:   return parseBoolean(s) ? 1 : 0;
+            case DURATION:  return parseDuration(s);
+            default:        return parseBytes(s);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(describe(kind));
+        }
+    }
+    
+    private static boolean parseBoolean(String s) {
+        if (s.equalsIgnoreCase("true") || s.equalsIgnoreCase("yes") || s.equalsIgnoreCase("on") || s.equals("1"))
+            return true;
+        if (s.equalsIgnoreCase("false") || s.equalsIgnoreCase("no") || s.equalsIgnoreCase("off") || s.equals("0"))
+            return false;
+        
+        throw new IllegalArgumentException(describe(BOOLEAN));
+    }
+    
+    private static final String[] DURATION_UNITS            = { "", "ns", "us", "ms", "s", "m", "h", "d" };
+    private static final long[] DURATION_NANOS              = { 1000000L, 1L, 1000L, 1000000L, 1000000000L, 
+        60000000000L, 3600000000000L, 86400000000000L };
+    
+    private static final String[] BYTE_UNITS                = { "", "b", "k", "kb", "kib", "m", "mb", "mib", 
+        "g", "gb", "gib", "t", "tb", "tib" };
+    private static final int[] BYTE_SHIFTS                  = { 0, 0, 10, 10, 10, 20, 20, 20, 30, 30, 30, 40, 40, 40 };
+    
+    /* Returns the duration in nanoseconds. A bare number is milliseconds. */
+    private static long parseDuration(String s) {
+        int end = digitsEnd(s, DURATION);
+        long n = parseDigits(s, end, DURATION);
+        int unit = unit(s, end, DURATION_UNITS, DURATION);
+        
+        /* TimeUnit.toNanos() would quietly give Long.MAX_VALUE instead. */
+        try {
+            return Math.multiplyExact(n, DURATION_NANOS[unit]);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("a duration of no more than 106751d (Long.MAX_VALUE nanoseconds)");
+        }
+    }
+    
+    /* Returns the size in bytes. k, m, g and t are multiples of 1024. */
+    private static long parseBytes(String s) {
+        int end = digitsEnd(s, BYTES);
+        long n = parseDigits(s, end, BYTES);
+        int shift = BYTE_SHIFTS[unit(s, end, BYTE_UNITS, BYTES)];
+        
+        if (n > (Long.MAX_VALUE >> shift))
+            throw new IllegalArgumentException(describe(BYTES));
+        
+        return n << shift;
+    }
+    
+    private static int digitsEnd(String s, int kind) {
+        int end = 0;
+        
+        while (end < s.length() && s.charAt(end) >= '0' && s.charAt(end) <= '9')
+            end++;
+        
+        if (end == 0)
+            throw new IllegalArgumentException(describe(kind));
+        
+        return end;
+    }
+    
+    private static long parseDigits(String s, int end, int kind) {
+        long n = 0;
+        
+        for (int i = 0; i < end; i++) {
+            if (n > (Long.MAX_VALUE - 9) / 10)
+                throw new IllegalArgumentException(describe(kind));
+            
+            n = n * 10 + (s.charAt(i) - '0');
+        }
+        
+        return n;
+    }
+    
+    /* Finds which of the units follows the number, allowing spaces in
+     * between and ignoring case, without creating any Strings.
+     */
+    private static int unit(String s, int start, String[] units, int kind) {
+        while (start < s.length() && s.charAt(start) == ' ')
+            start++;
+        
+        int length = s.length() - start;
+        
+        for (int i = 0; i < units.length; i++) {
+            if (units[i].length() == length && s.regionMatches(true, start, units[i], 0, length))
+                return i;
+        }
+        
+        throw new IllegalArgumentException(describe(kind));
+    }
+}
@@ -0,0 +1,394 @@
+/* File: StructuredPropertiesWriter.java
+ * 
+ *    Copyright 2018 Nathan Ollerenshaw <chrome@stupendous.net>
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.stupendous.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a configuration out in Structured Properties syntax, as it goes,
+ * so that a configuration of any size can be written without being held
+ * in memory.
+ * <p>
+ * A tree of Maps and Lists, such as the root of a StructuredProperties,
+ * is written with write():
+ * <pre>
+ * StructuredPropertiesWriter w = new StructuredPropertiesWriter(new FileOutputStream(f));
+ * w.write(c.getTree());
+ * w.close();
+ * </pre>
+ * The writer is also a StructuredPropertiesHandler, so it can be given the
+ * events of a parser, to copy one configuration into another in canonical
+ * form, or the events of a program that generates a configuration without
+ * ever building a tree of it. The first startMap() is taken to be the
+ * root, and the last endBlock() flushes the output. An include() is
+ * written as an @include directive.
+ * <p>
+ * Keys and the entries of lists are written bare if they are IDs, and in
+ * double quotes otherwise. A value in a map is written unquoted if the
+ * lexer would read it back unchanged, and in double quotes otherwise. Every
+ * entry is on a line of its own, indented by four spaces a level. Values
+ * that are neither Maps, Lists nor Strings are written as their toString().
+ * <p>
+ * Some things cannot be written in a way that reads back the same, and
+ * throw an Error, leaving the output incomplete:
+ * <ul>
+ *   <li>a String with a backslash followed by t, n or r, or that ends in
+ *       a backslash, as quoted strings have no escape for a backslash;</li>
+ *   <li>a List that holds a single String, or a String followed by a
+ *       block, as the parser would not read it back as a list.</li>
+ * </ul>
+ * An empty Map or List is written as { }, which the parser reads as null.
+ * 
+ * @see StructuredPropertiesHandler
+ */
+public class StructuredPropertiesWriter implements StructuredPropertiesHandler, Flushable, Closeable {
+    private static final String INDENT                      = "    ";
+    
+    private java.io.Writer out                              = null;
+    private String key                                      = null;
+    
+    /* For every open block: whether it is a list, how many entries have
+     * been written to it, and whether the first of them was a String.
+     */
+    private boolean[] blockIsList                           = new boolean[16];
+    private int[] blockEntries                              = new int[16];
+    private boolean[] blockStartsWithString                 = new boolean[16];
+    private int depth                                       = 0;
+
+    /**
+     * Creates a writer that writes to out. Wrap it in a BufferedWriter
+     * first, unless it is buffered already.
+     * 
+     * @param out
+     */
+    
+    public StructuredPropertiesWriter(java.io.Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates a writer that writes UTF-8 to out, through a buffer.
+     * 
+     * @param out
+     */
+    
+    public StructuredPropertiesWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Writes a configuration and flushes it.
+     * 
+     * @param properties
+     * @throws Error
+     */
+    
+    public void write(StructuredProperties properties) throws Error {
+        write(properties.getTree());
+    }
+
+    /**
+     * Writes root, and everything below it, as a whole configuration and
+     * flushes it.
+     * 
+     * @param root
+     * @throws Error
+     */
+    
+    public void write(Map<?, ?> root) throws Error {
+        /* What is left of each block being written, innermost last. */
+        ArrayList<Iterator<?>> blocks = new ArrayList<Iterator<?>>();
+        
+        startMap(1);
+        blocks.add(root.entrySet().iterator());
+        
+        while (!blocks.isEmpty()) {
+            Iterator<?> block = blocks.get(blocks.size() - 1);
+            
+            if (!block.hasNext()) {
+                blocks.remove(blocks.size() - 1);
+                endBlock(blocks.isEmpty() ? 1 : 0);
+                continue;
+            }
+            
+            Object value = block.next();
+            
+            if (!blockIsList[depth - 1]) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+                
+                key(String.valueOf(entry.getKey()), 0);
+                value = entry.getValue();
+            }
+            
+            if (value instanceof Map<?, ?>) {
+                startMap(0);
+                blocks.add(((Map<?, ?>) value).entrySet().iterator());
+            } else if (value instanceof List<?>) {
+                startList(0);
+                blocks.add(((List<?>) value).iterator());
+            } else {
+                value(value == null ? null : value.toString(), 0);
+            }
+        }
+    }
+
+    public void startMap(int line) {
+        start(false);
+    }
+
+    public void startList(int line) {
+        start(true);
+    }
+
+    public void key(String key, int line) {
+        this.key = key;
+    }
+
+    public void value(String value, int line) {
+        if (value == null) {
+            entry(false);
+            write("{ }\n");
+        } else if (depth > 0 && !blockIsList[depth - 1]) {
+            entry(true);
+            write(isUnquoted(value) ? value : quote(value));
+            write("\n");
+        } else {
+            entry(true);
+            write(isId(value) ? value : quote(value));
+            write("\n");
+        }
+    }
+
+    public void include(String path, int line) {
+        if (depth == 0 || blockIsList[depth - 1])
+            throw new Error("Unable to write configuration: an include must be in a map.");
+        
+        if (blockEntries[depth - 1] == 0 && depth > 1)
+            write("\n");
+        
+        blockEntries[depth - 1]++;
+        indent(depth - 1);
+        write("@include ");
+        write(quote(path));
+        write("\n");
+    }
+
+    public void endBlock(int line) {
+        depth--;
+        
+        if (blockIsList[depth] && blockEntries[depth] == 1 && blockStartsWithString[depth])
+            throw new Error("Unable to write configuration: a list of a single string would not be read back as a list.");
+        
+        if (depth == 0) {
+            flush();
+            return;
+        }
+        
+        if (blockEntries[depth] == 0) {
+            write(" }\n");
+            return;
+        }
+        
+        indent(depth - 1);
+        write("}\n");
+    }
+    
+    /* Writes the key, if any, of a new entry of the innermost block. */
+    private void entry(boolean isString) {
+        if (depth == 0)
+            throw new Error("Unable to write configuration: there is no block to write it in.");
+        
+        int block = depth - 1;
+        
+        if (blockIsList[block] && blockEntries[block] == 1 && blockStartsWithString[block] && !isString)
+            throw new Error("Unable to write configuration: a list that starts with a string cannot hold a block next.");
+        
+        /* The { of the block is waiting for its first entry. */
+        if (blockEntries[block] == 0 && block > 0)
+            write("\n");
+        
+        if (blockEntries[block] == 0)
+            blockStartsWithString[block] = isString;
+        
+        blockEntries[block]++;
+        indent(depth - 1);
+        
+        if (!blockIsList[block]) {
+            if (key == null)
+                throw new Error("Unable to write configuration: a value in a map has no key.");
+            
+            write(isId(key) ? key : quote(key));
+            write(isString ? " = " : " ");
+            key = null;
+        }
+    }
+    
+    private void start(boolean isList) {
+        if (depth > 0) {
+            entry(false);
+            write("{");
+        } else if (isList) {
+            throw new Error("Unable to write configuration: the root must be a map.");
+        }
+        
+        if (depth == blockIsList.length) {
+            blockIsList = Arrays.copyOf(blockIsList, depth * 2);
+            blockEntries = Arrays.copyOf(blockEntries, depth * 2);
+            blockStartsWithString = Arrays.copyOf(blockStartsWithString, depth * 2);
+        }
+        
+        blockIsList[depth] = isList;
+        blockEntries[depth] = 0;
+        blockStartsWithString[depth] = false;
+        depth++;
+    }
+    
+    private void indent(int level) {
+        for (int i = 0; i < level; i++)
+            write(INDENT);
+    }
+    
+    /* ID = [a-z][a-zA-Z0-9\-_]* */
+    private static boolean isId(String s) {
+        if (s.length() == 0 || s.charAt(0) < 'a' || s.charAt(0) > 'z')
+            return false;
+        
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_'))
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /* Whether the VALUE and PSTRING rules read s back unchanged: it must
+     * not start with whitespace, a quote or a brace, nor end in whitespace,
+     * and must not hold a line break, a comment, a backslash or a }.
+     */
+    private static boolean isUnquoted(String s) {
+        if (s.length() == 0)
+            return false;
+        
+        char first = s.charAt(0);
+        
+        if (isWhitespace(first) || first == '"' || first == '{')
+            return false;
+        
+        if (isWhitespace(s.charAt(s.length() - 1)))
+            return false;
+        
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            
+            if (c == '\n' || c == '\r' || c == '\\' || c == '#' || c == '}')
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /* The whitespace of the lexer, and Java's \s that unquoted strings are trimmed of. */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == 0x0b || c == '\f' || c == '\n' || c == '\r';
+    }
+    
+    /* Quotes s as the QSTRING rules read it, which have no escape for a
+     * backslash: one is only read as itself if it is not followed by an
+     * escape character or the closing quote.
+     */
+    private static String quote(String s) throws Error {
+        StringBuilder q = new StringBuilder(s.length() + 2);
+        
+        q.append('"');
+        
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            
+            switch (c) {
+            case '\t':  q.append("\\t"); break;
+            case '\n':  q.append("\\n"); break;
+            case '\r':  q.append("\\r"); break;
+            case '"':   q.append("\\\""); break;
+            case '\\':
+                /* A quote after it is escaped, so begins with a backslash. */
+                char next = i + 1 < s.length() ? s.charAt(i + 1) : '"';
+                
+                if (next == 't' || next == 'n' || next == 'r' || i + 1 == s.length())
+                    throw new Error("Unable to write configuration: \"" + s + "\" cannot be quoted, as it has a backslash before " + 
+                            (i + 1 < s.length() ? "'" + next + "'" : "its end") + ".");
+                
+                q.append(c);
+                break;
+            default:
+                q.append(c);
+            }
+        }
+        
+        q.append('"');
+        return q.toString();
+    }
+    
+    private void write(String s) throws Error {
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            throw new Error("Unable to write configuration: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Flushes what has been written so far.
+     * 
+     * @throws Error
+     */
+    
+    public void flush() throws Error {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new Error("Unable to write configuration: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Flushes and closes the output.
+     * 
+     * @throws Error
+     */
+    
+    public void close() throws Error {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new Error("Unable to write configuration: " + e.getMessage(), e);
+        }
+    }
+}